@@ -0,0 +1,205 @@
+import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.Follow;
+import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.Stream;
+import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.StreamUtil;
+import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.StreamViewComparator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Times the followed streams bookkeeping for a user with 2000 follows
+ * Compares the nested loop offline follow lookup and the full sort it replaced with StreamUtil. Run with the
+ * benchmark task. It is not part of the tests.
+ */
+public class FollowedStreamsBenchmark {
+    private static final int FOLLOWS = 2000;
+    private static final int PAGE_SIZE = 100;
+    private static final int LIMIT = 20;
+    private static final int WARMUP_RUNS = 200;
+    private static final int RUNS = 200;
+
+    public static void main(String[] args) {
+        List<Follow> follows = createFollows();
+        List<Stream> streams = createStreams(follows);
+        List<List<Stream>> pageStreams = getPageStreams(follows, streams);
+        benchmarkOfflineFollows(follows, pageStreams);
+        benchmarkTopStreams(streams);
+    }
+
+    /**
+     * Compare the nested loop offline follow lookup with StreamUtil.addOfflineFollows
+     * @param follows follows
+     * @param pageStreams live streams of each page of follows
+     */
+    private static void benchmarkOfflineFollows(List<Follow> follows, List<List<Stream>> pageStreams) {
+        if (!getOfflineFollowsNested(follows, pageStreams).equals(getOfflineFollowsIndexed(follows, pageStreams)))
+            throw new IllegalStateException("Offline follows differ");
+        for (int run = 0; run < WARMUP_RUNS; run++) {
+            getOfflineFollowsNested(follows, pageStreams);
+            getOfflineFollowsIndexed(follows, pageStreams);
+        }
+        long nestedTime = 0;
+        long indexedTime = 0;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            getOfflineFollowsNested(follows, pageStreams);
+            nestedTime += System.nanoTime() - start;
+            start = System.nanoTime();
+            getOfflineFollowsIndexed(follows, pageStreams);
+            indexedTime += System.nanoTime() - start;
+        }
+        System.out.println(String.format("Offline follows for %d follows: nested %d us, indexed %d us", FOLLOWS,
+                nestedTime / RUNS / 1000, indexedTime / RUNS / 1000));
+    }
+
+    /**
+     * Compare sorting every followed stream with StreamUtil.getTopStreams
+     * @param streams live and offline streams
+     */
+    private static void benchmarkTopStreams(List<Stream> streams) {
+        if (!getTopStreamsSorted(streams).equals(
+                StreamUtil.getTopStreams(streams, new StreamViewComparator(), LIMIT)))
+            throw new IllegalStateException("Top streams differ");
+        for (int run = 0; run < WARMUP_RUNS; run++) {
+            getTopStreamsSorted(streams);
+            StreamUtil.getTopStreams(streams, new StreamViewComparator(), LIMIT);
+        }
+        long sortedTime = 0;
+        long heapTime = 0;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            getTopStreamsSorted(streams);
+            sortedTime += System.nanoTime() - start;
+            start = System.nanoTime();
+            StreamUtil.getTopStreams(streams, new StreamViewComparator(), LIMIT);
+            heapTime += System.nanoTime() - start;
+        }
+        System.out.println(String.format("Top %d of %d streams: sorted %d us, heap %d us", LIMIT, streams.size(),
+                sortedTime / RUNS / 1000, heapTime / RUNS / 1000));
+    }
+
+    /**
+     * Create follows of a synthetic user
+     * @return follows
+     */
+    private static List<Follow> createFollows() {
+        List<Follow> follows = new ArrayList<>();
+        for (int index = 0; index < FOLLOWS; index++) {
+            Follow follow = new Follow();
+            follow.setFromId("1");
+            follow.setToId(String.valueOf(1000 + index));
+            follows.add(follow);
+        }
+        return follows;
+    }
+
+    /**
+     * Create live streams for a tenth of the follows followed by offline streams for the rest
+     * @param follows follows
+     * @return streams
+     */
+    private static List<Stream> createStreams(List<Follow> follows) {
+        Random random = new Random(0);
+        List<Stream> streams = new ArrayList<>();
+        List<Stream> offlineStreams = new ArrayList<>();
+        for (Follow follow : follows) {
+            Stream stream = new Stream();
+            stream.setUserId(follow.getToId());
+            stream.setViewerCount(random.nextInt(10000));
+            if (random.nextInt(10) == 0) {
+                stream.setType("live");
+                streams.add(stream);
+            }
+            else {
+                stream.setType("user_follow");
+                offlineStreams.add(stream);
+            }
+        }
+        streams.addAll(offlineStreams);
+        return streams;
+    }
+
+    /**
+     * Split the live streams by the page of follows they would be requested with
+     * @param follows follows
+     * @param streams live and offline streams
+     * @return live streams of each page
+     */
+    private static List<List<Stream>> getPageStreams(List<Follow> follows, List<Stream> streams) {
+        Map<String, Stream> liveStreams = new HashMap<>();
+        for (Stream stream : streams)
+            if (stream.getType().equals("live"))
+                liveStreams.put(stream.getUserId(), stream);
+        List<List<Stream>> pageStreams = new ArrayList<>();
+        for (int followIndex = 0; followIndex < follows.size(); followIndex += PAGE_SIZE) {
+            List<Stream> page = new ArrayList<>();
+            for (Follow follow : follows.subList(followIndex, Math.min(follows.size(), followIndex + PAGE_SIZE)))
+                if (liveStreams.containsKey(follow.getToId()))
+                    page.add(liveStreams.get(follow.getToId()));
+            pageStreams.add(page);
+        }
+        return pageStreams;
+    }
+
+    /**
+     * Find offline follows as the followed streams request did before it used StreamUtil.addOfflineFollows
+     * @param follows follows
+     * @param pageStreams live streams of each page of follows
+     * @return offline follows
+     */
+    private static List<Follow> getOfflineFollowsNested(List<Follow> follows, List<List<Stream>> pageStreams) {
+        List<Follow> followsOffline = new ArrayList<>();
+        for (int followIndex = 0; followIndex < follows.size(); followIndex += PAGE_SIZE) {
+            List<Follow> page = follows.subList(followIndex, Math.min(follows.size(), followIndex + PAGE_SIZE));
+            List<Stream> streams = pageStreams.get(followIndex / PAGE_SIZE);
+            List<String> followIds = new ArrayList<>();
+            for (Follow follow : page)
+                followIds.add(follow.getToId());
+            for (String followId : followIds)
+                for (Follow follow : page)
+                    if (followId != null && followId.equals(follow.getToId()) &&
+                            !followsOffline.contains(follow) &&
+                            !StreamUtil.streamListContainsId(streams, followId))
+                        followsOffline.add(follow);
+        }
+        return followsOffline;
+    }
+
+    /**
+     * Find offline follows as the followed streams request does
+     * @param follows follows
+     * @param pageStreams live streams of each page of follows
+     * @return offline follows
+     */
+    private static List<Follow> getOfflineFollowsIndexed(List<Follow> follows, List<List<Stream>> pageStreams) {
+        List<Follow> followsOffline = new ArrayList<>();
+        Set<String> followIdsOffline = new HashSet<>();
+        for (int followIndex = 0; followIndex < follows.size(); followIndex += PAGE_SIZE) {
+            Map<String, Follow> pageFollows = new HashMap<>();
+            List<String> followIds = new ArrayList<>();
+            for (Follow follow : follows.subList(followIndex, Math.min(follows.size(), followIndex + PAGE_SIZE))) {
+                followIds.add(follow.getToId());
+                pageFollows.putIfAbsent(follow.getToId(), follow);
+            }
+            StreamUtil.addOfflineFollows(followsOffline, followIdsOffline, followIds, pageFollows,
+                    pageStreams.get(followIndex / PAGE_SIZE));
+        }
+        return followsOffline;
+    }
+
+    /**
+     * Select the top streams as the followed streams request did before it used StreamUtil.getTopStreams
+     * @param streams live and offline streams
+     * @return top streams
+     */
+    private static List<Stream> getTopStreamsSorted(List<Stream> streams) {
+        List<Stream> sorted = new ArrayList<>(streams);
+        sorted.sort(new StreamViewComparator().reversed());
+        return new ArrayList<>(sorted.subList(0, Math.min(LIMIT, sorted.size())));
+    }
+}
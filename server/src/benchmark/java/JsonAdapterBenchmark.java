@@ -0,0 +1,115 @@
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.Stream;
+import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.UserName;
+import com.rolandoislas.twitchunofficial.util.JsonUtil;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times the serialize and deserialize throughput and allocation of the json adapters against reflective Gson
+ * Run with the benchmark task. It is not part of the tests.
+ */
+public class JsonAdapterBenchmark {
+    private static final int STREAMS = 100;
+    private static final int WARMUP_RUNS = 500;
+    private static final int RUNS = 500;
+    private static final Type STREAM_LIST_TYPE = new TypeToken<List<Stream>>() {}.getType();
+
+    public static void main(String[] args) {
+        Gson reflectiveGson = new Gson();
+        Gson gson = JsonUtil.getGson();
+        List<Stream> streams = createStreams();
+        String json = gson.toJson(streams);
+        if (!json.equals(reflectiveGson.toJson(streams)))
+            throw new IllegalStateException("Adapter json differs from reflection");
+        for (int run = 0; run < WARMUP_RUNS; run++) {
+            reflectiveGson.toJson(streams);
+            gson.toJson(streams);
+            reflectiveGson.fromJson(json, STREAM_LIST_TYPE);
+            gson.fromJson(json, STREAM_LIST_TYPE);
+        }
+        Measurement reflectiveWrite = measure(() -> reflectiveGson.toJson(streams));
+        Measurement adapterWrite = measure(() -> gson.toJson(streams));
+        Measurement reflectiveRead = measure(() -> reflectiveGson.fromJson(json, STREAM_LIST_TYPE));
+        Measurement adapterRead = measure(() -> gson.fromJson(json, STREAM_LIST_TYPE));
+        System.out.println(String.format("Serialize %d streams: reflection %s, adapter %s", STREAMS,
+                reflectiveWrite, adapterWrite));
+        System.out.println(String.format("Deserialize %d streams: reflection %s, adapter %s", STREAMS,
+                reflectiveRead, adapterRead));
+    }
+
+    /**
+     * Run a task and measure its average time and allocation
+     * @param task task to run
+     * @return measurement
+     */
+    private static Measurement measure(Runnable task) {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        long startBytes = getAllocatedBytes(threadBean);
+        long start = System.nanoTime();
+        for (int run = 0; run < RUNS; run++)
+            task.run();
+        long time = System.nanoTime() - start;
+        long bytes = getAllocatedBytes(threadBean) - startBytes;
+        return new Measurement(time / RUNS, startBytes < 0 ? -1 : bytes / RUNS);
+    }
+
+    /**
+     * Get the bytes allocated by the current thread if the JVM reports it
+     * @param threadBean thread bean
+     * @return bytes or -1
+     */
+    private static long getAllocatedBytes(ThreadMXBean threadBean) {
+        if (threadBean instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) threadBean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        return -1;
+    }
+
+    /**
+     * Create live streams with every field set
+     * @return streams
+     */
+    private static List<Stream> createStreams() {
+        Random random = new Random(0);
+        List<Stream> streams = new ArrayList<>();
+        for (int index = 0; index < STREAMS; index++) {
+            Stream stream = new Stream();
+            stream.setId(String.valueOf(random.nextLong()));
+            stream.setUserId(String.valueOf(1000 + index));
+            stream.setGameId(String.valueOf(random.nextInt(500)));
+            stream.setCommunityIds(new ArrayList<>());
+            stream.setType("live");
+            stream.setTitle("Stream title " + index + " <with> \"quotes\" & symbols é");
+            stream.setViewerCount(random.nextInt(100000));
+            stream.setStartedAt("2018-01-01T00:00:00Z");
+            stream.setLanguage("en");
+            stream.setThumbnailUrl("https://example.com/live_user_" + index + "-{width}x{height}.jpg");
+            stream.setUserName(new UserName("user" + index, "User" + index));
+            stream.setGameName("Game " + index);
+            streams.add(stream);
+        }
+        return streams;
+    }
+
+    private static class Measurement {
+        private final long nanos;
+        private final long bytes;
+
+        private Measurement(long nanos, long bytes) {
+            this.nanos = nanos;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d us %d KB", nanos / 1000, bytes / 1024);
+        }
+    }
+}
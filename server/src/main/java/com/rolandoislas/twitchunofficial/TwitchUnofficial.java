@@ -156,6 +156,7 @@ public class TwitchUnofficial {
             path("/dev", () -> {
                 get("/log", TwitchedApi::logGet);
                 get("/stall", TwitchedApi::getStall);
+                get("/queue", TwitchedApi::getQueueStats);
             });
             //noinspection CodeBlock2Expr
             path("/ad", () -> {
@@ -172,6 +173,7 @@ public class TwitchUnofficial {
                 post("", TwitchedApi::postStreamQualitiesForModels);
             });
             get("/bif/*/*", TwitchedApi::getBifUrl);
+            post("/batch", TwitchedApi::postBatch);
         });
         // Web
         get("/", TwitchUnofficialServer::getIndex);
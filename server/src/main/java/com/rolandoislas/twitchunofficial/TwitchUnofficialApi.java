@@ -13,16 +13,20 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonSyntaxException;
-import com.google.gson.reflect.TypeToken;
 import com.rolandoislas.twitchunofficial.data.annotation.Cached;
 import com.rolandoislas.twitchunofficial.data.annotation.NotCached;
+import com.rolandoislas.twitchunofficial.data.model.CachedResponse;
 import com.rolandoislas.twitchunofficial.data.model.CachedStreams;
+import com.rolandoislas.twitchunofficial.data.model.ClientProfile;
 import com.rolandoislas.twitchunofficial.data.model.FollowQueue;
 import com.rolandoislas.twitchunofficial.data.model.FollowedGamesWithRate;
+import com.rolandoislas.twitchunofficial.data.model.LiveFollows;
 import com.rolandoislas.twitchunofficial.data.model.Id;
+import com.rolandoislas.twitchunofficial.data.model.MasterPlaylist;
 import com.rolandoislas.twitchunofficial.data.model.Playlist;
-import com.rolandoislas.twitchunofficial.data.model.QueueItem;
 import com.rolandoislas.twitchunofficial.data.model.StreamQuality;
+import com.rolandoislas.twitchunofficial.data.model.StreamQualityFilter;
+import com.rolandoislas.twitchunofficial.data.model.StreamQualityIndex;
 import com.rolandoislas.twitchunofficial.data.model.StreamStatusQueue;
 import com.rolandoislas.twitchunofficial.data.model.TwitchCredentials;
 import com.rolandoislas.twitchunofficial.data.model.UsersWithRate;
@@ -49,13 +53,22 @@ import com.rolandoislas.twitchunofficial.data.model.json.twitch.kraken.FollowedG
 import com.rolandoislas.twitchunofficial.data.model.json.twitch.kraken.Preview;
 import com.rolandoislas.twitchunofficial.util.ApiCache;
 import com.rolandoislas.twitchunofficial.util.AuthUtil;
+import com.rolandoislas.twitchunofficial.util.CacheBatch;
 import com.rolandoislas.twitchunofficial.util.FollowsCacher;
 import com.rolandoislas.twitchunofficial.util.HeaderUtil;
+import com.rolandoislas.twitchunofficial.util.HlsPrefetcher;
+import com.rolandoislas.twitchunofficial.util.JsonUtil;
+import com.rolandoislas.twitchunofficial.util.LiveStreamIndexer;
 import com.rolandoislas.twitchunofficial.util.Logger;
 import com.rolandoislas.twitchunofficial.util.NotFoundException;
+import com.rolandoislas.twitchunofficial.util.PlaylistCache;
+import com.rolandoislas.twitchunofficial.util.RateScheduler;
+import com.rolandoislas.twitchunofficial.util.ResponseUtil;
+import com.rolandoislas.twitchunofficial.util.StreamEnricher;
 import com.rolandoislas.twitchunofficial.util.StringUtil;
+import com.rolandoislas.twitchunofficial.util.TopSnapshotPublisher;
+import com.rolandoislas.twitchunofficial.util.WorkQueue;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.maven.artifact.versioning.ComparableVersion;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -73,20 +86,23 @@ import java.util.Base64;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
+import java.util.Set;
 import java.util.WeakHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static com.rolandoislas.twitchunofficial.TwitchUnofficial.cache;
 
 public class TwitchUnofficialApi {
-    public static final Queue<QueueItem> followIdsToCache = new ConcurrentLinkedQueue<>();
-    private static final Pattern DURATION_REGEX = Pattern.compile("(?:(\\d+)d)?(?:(\\d+)h)?(?:(\\d+)m)?(?:(\\d+)s)");
+    private static final int FOLLOWS_QUEUE_SIZE =
+            (int) StringUtil.parseLong(System.getenv().getOrDefault("FOLLOWS_QUEUE_SIZE", "10000"));
+    private static final int FOLLOWS_THREADS =
+            (int) StringUtil.parseLong(System.getenv().getOrDefault("FOLLOWS_THREADS", "1"));
+    private static final long FOLLOWS_LEASE =
+            StringUtil.parseLong(System.getenv().getOrDefault("FOLLOWS_LEASE", "600")) * 1000;
+    public static final WorkQueue followIdsToCache = new WorkQueue("follows", FOLLOWS_QUEUE_SIZE, FOLLOWS_LEASE);
     private static final String IMAGE_SIZE_REGEX = "-\\d+x\\d+\\.";
     static final int BAD_REQUEST = 400;
     static final int NOT_FOUND = 404;
@@ -97,9 +113,13 @@ public class TwitchUnofficialApi {
     private static final String API_RAW = "https://api.twitch.tv/api";
     private static final String API_USHER = "https://usher.ttvnw.net";
     public static final int RATE_LIMIT_MAX = 800;
+    public static final RateScheduler rateScheduler = new RateScheduler(RATE_LIMIT_MAX / 4, 50);
     private static final String SUB_ONLY_VIDEO =
             "https://static.twitched.org/hls/sub_only_video_720/sub_only_video_720.m3u8";
     private static final String API_AUTH = "https://id.twitch.tv";
+    private static final int HLS_ANONYMOUS_TIMEOUT =
+            (int) StringUtil.parseLong(System.getenv().getOrDefault("HLS_ANONYMOUS_CACHE", "30"));
+    private static final int TOKEN_EXPIRE_MARGIN = 60; // Seconds before a signed token expires that it is not used
 
     public static Gson gson;
     private static Thread followsThread;
@@ -220,23 +240,19 @@ public class TwitchUnofficialApi {
         if (username == null || username.isEmpty())
             return null;
         // Check cache
+        // Anonymous requests share a single key per channel, so the lock coalesces all anonymous viewers of a channel
+        // into one upstream fetch. Anonymous playlists are not cached when HLS_ANONYMOUS_TIMEOUT is 0, so there is
+        // nothing to coalesce and the lock is skipped
         String requestId = ApiCache.createKey("hls", username, AuthUtil.hashString(userToken, null));
-        boolean shouldLock = userToken != null && !userToken.isEmpty();
-        ReentrantLock lock = null;
-        if (shouldLock) {
-            synchronized (hlsLocks) {
-                lock = hlsLocks.get(requestId);
-                if (lock == null) {
-                    lock = new ReentrantLock();
-                    hlsLocks.put(requestId, lock);
-                }
-            }
+        boolean anonymous = userToken == null || userToken.isEmpty();
+        @Nullable ReentrantLock lock = anonymous && HLS_ANONYMOUS_TIMEOUT <= 0 ? null : getPlaylistLock(requestId);
+        if (lock != null)
             lock.lock();
-        }
         try {
             String cachedResponse = cache.get(requestId);
             if (cachedResponse != null) {
-                String cachedPlaylist = cleanMasterPlaylist(cachedResponse, fps, quality, model);
+                MasterPlaylist masterPlaylist = PlaylistCache.getMasterPlaylist(requestId, cachedResponse);
+                String cachedPlaylist = cleanMasterPlaylist(masterPlaylist, fps, quality, model);
                 return cachedPlaylist.isEmpty() ? null : cachedPlaylist;
             }
             // Get live data
@@ -279,20 +295,100 @@ public class TwitchUnofficialApi {
             if (playlistString == null || playlistString.isEmpty())
                 return null;
             // Cache and return
-            // Do not cache playlist if the user token is not set
-            if (userToken != null && !userToken.isEmpty())
+            // Anonymous playlists are shared between all anonymous viewers for a short time
+            boolean cached = true;
+            if (!anonymous)
                 cache.set(requestId, playlistString);
-            String cleanedPlaylist = cleanMasterPlaylist(playlistString, fps, quality, model);
+            else {
+                int anonymousTimeout = getAnonymousPlaylistTimeout(token);
+                cached = anonymousTimeout > 0;
+                if (cached)
+                    cache.set(requestId, playlistString, anonymousTimeout);
+            }
+            MasterPlaylist masterPlaylist = cached ? PlaylistCache.getMasterPlaylist(requestId, playlistString) :
+                    new MasterPlaylist(playlistString, 0);
+            String cleanedPlaylist = cleanMasterPlaylist(masterPlaylist, fps, quality, model);
             return cleanedPlaylist.isEmpty() ? null : cleanedPlaylist;
         }
         finally {
-            if (shouldLock) {
+            if (lock != null) {
                 assert lock.isHeldByCurrentThread();
                 lock.unlock();
             }
         }
     }
 
+    /**
+     * Get the lock used to coalesce upstream requests for a playlist cache key
+     * @param requestId cache key
+     * @return lock for the key
+     */
+    private static ReentrantLock getPlaylistLock(String requestId) {
+        synchronized (hlsLocks) {
+            ReentrantLock lock = hlsLocks.get(requestId);
+            if (lock == null) {
+                lock = new ReentrantLock();
+                hlsLocks.put(requestId, lock);
+            }
+            return lock;
+        }
+    }
+
+    /**
+     * Get the amount of time a VOD master playlist can be cached
+     * VOD playlists are cached for the lifetime of the signed token they were requested with, capped at a day.
+     * @param token token used to request the playlist
+     * @return timeout in seconds - 0 if the playlist should not be cached
+     */
+    private static int getVodPlaylistTimeout(Token token) {
+        long expires = token.getExpires();
+        if (expires <= 0)
+            return 0;
+        long timeout = expires - System.currentTimeMillis() / 1000 - TOKEN_EXPIRE_MARGIN;
+        return (int) Math.max(Math.min(timeout, ApiCache.TIMEOUT_DAY), 0);
+    }
+
+    /**
+     * Get the amount of time an anonymous master playlist can be shared
+     * The time is limited to HLS_ANONYMOUS_TIMEOUT and will end before the signed token the playlist was requested
+     * with expires.
+     * @param token token used to request the playlist
+     * @return timeout in seconds - 0 if the playlist should not be cached
+     */
+    private static int getAnonymousPlaylistTimeout(Token token) {
+        long timeout = HLS_ANONYMOUS_TIMEOUT;
+        long expires = token.getExpires();
+        if (expires > 0)
+            timeout = Math.min(timeout, expires - System.currentTimeMillis() / 1000 - TOKEN_EXPIRE_MARGIN);
+        return (int) Math.max(timeout, 0);
+    }
+
+    /**
+     * Request a channel's access token and master playlist so they are cached for the next HLS request
+     * @param username channel login or ":" followed by the user id
+     * @param userToken optional user provided twitch oauth token
+     */
+    public static void prefetchHlsData(String username, @Nullable String userToken) {
+        getHlsData(60, "1080", null, userToken, username);
+    }
+
+    /**
+     * Check if the master playlist of a channel is cached
+     * @param username channel login or ":" followed by the user id
+     * @param userToken optional user provided twitch oauth token
+     * @return true if cached - false if it is not cached or the login of the user id is not cached
+     */
+    public static boolean isHlsDataCached(String username, @Nullable String userToken) {
+        if (username.startsWith(":")) {
+            String userId = username.substring(1);
+            User user = getCachedUsers(Collections.singletonList(userId), false).get(userId);
+            if (user == null || user.getLogin() == null || user.getLogin().isEmpty())
+                return false;
+            username = user.getLogin();
+        }
+        return cache.exists(ApiCache.createKey("hls", username, AuthUtil.hashString(userToken, null)));
+    }
+
     /**
      * Return HLS playlists for a stream
      * @return HLS playlists
@@ -325,6 +421,8 @@ public class TwitchUnofficialApi {
         }
         String remaining = response.getHeaderField("RateLimit-Remaining");
         String reset = response.getHeaderField("RateLimit-Reset");
+        if (remaining != null && reset != null)
+            rateScheduler.update((int) StringUtil.parseLong(remaining), StringUtil.parseLong(reset));
         String log = String.format("Rate Limit:\n\tLimit: %s\n\tRemaining: %s,\n\tReset: %s",
                 limit, remaining, reset);
         Logger.debug(log);
@@ -333,12 +431,27 @@ public class TwitchUnofficialApi {
 
     /**
      * Get an access token for a channel stream or a VOD
+     * Tokens are cached until shortly before the expire time embedded in the signed token.
      * @param type type of stream to get
      * @param userToken optional user provided twich oauth token
      * @return token
      */
-    @NotCached
+    @Cached
     private static Token getVideoAccessToken(Token.TYPE type, String id, @Nullable String userToken) {
+        // Check cache
+        String requestId = ApiCache.createKey("videotoken", type, id, AuthUtil.hashString(userToken, null));
+        String cachedToken = cache.get(requestId);
+        if (cachedToken != null) {
+            try {
+                Token token = gson.fromJson(cachedToken, Token.class);
+                if (token != null && token.getToken() != null && token.getSig() != null)
+                    return token;
+            }
+            catch (JsonSyntaxException e) {
+                Logger.exception(e);
+            }
+        }
+        // Request live
         String url;
         switch (type) {
             case CHANNEL:
@@ -374,6 +487,10 @@ public class TwitchUnofficialApi {
         catch (JsonSyntaxException e) {
             throw halt(BAD_GATEWAY, "Failed to parse token data.");
         }
+        // Cache
+        long timeout = token.getExpires() - System.currentTimeMillis() / 1000 - TOKEN_EXPIRE_MARGIN;
+        if (timeout > 0)
+            cache.set(requestId, tokenJsonString, (int) Math.min(timeout, ApiCache.TIMEOUT_HOUR));
         return token;
     }
 
@@ -418,58 +535,91 @@ public class TwitchUnofficialApi {
             return null;
         String vodId = idSplit[0];
         // Check cache
-        String requestId = ApiCache.createKey("vod", vodId, AuthUtil.hashString(userToken, null));
-        String cachedResponse = cache.get(requestId);
-        if (cachedResponse != null) {
-            response.type("audio/mpegurl");
-            String cachedPlaylist = cleanMasterPlaylist(cachedResponse, fps, quality, model);
-            return cachedPlaylist.isEmpty() ? null : cachedPlaylist;
-        }
-        // Fetch live data
-        Webb webb = getWebb();
-        // TODO When the API transitions to Helix the Authentication header will change
-        if (userToken != null)
-            webb = getPrivilegedWebbKraken(userToken);
-        // Request VOD token
-        Token token = getVideoAccessToken(Token.TYPE.VOD, vodId, userToken);
-
-        // Request HLS playlist
-        String hlsPlaylistUrl = String.format(API_USHER + "/vod/%s.m3u8", vodId);
-        String playlistString = null;
+        // The master is cached for the lifetime of its token. If the variant URLs do not carry the token signature,
+        // the master is also kept under the variants key for a week, as a VOD's variants do not change.
+        String tokenHash = AuthUtil.hashString(userToken, null);
+        String requestId = ApiCache.createKey("vod", vodId, tokenHash);
+        String variantsId = ApiCache.createKey("vod_variants", vodId, tokenHash);
+        ReentrantLock lock = getPlaylistLock(requestId);
+        lock.lock();
         try {
-            Logger.verbose( "Rest Request to [%s]", hlsPlaylistUrl);
-            Response<String> webbResponse = webb.get(hlsPlaylistUrl)
-                    .header("Accept", "*/*")
-                    .param("nauth", token.getToken())
-                    .param("nauthsig", token.getSig())
-                    .param("p", String.valueOf((int) (Math.random() * Integer.MAX_VALUE)))
-                    .param("type", "any")
-                    .param("allow_audio_only", "true")
-                    .param("allow_source", "true")
-                    .ensureSuccess()
-                    .asString();
-            playlistString = webbResponse.getBody();
-        }
-        catch (WebbException e) {
-            Logger.warn("Request failed: " + e.getMessage());
-            Logger.exception(e);
-            // Redirect to sub only warning video
-            if (e.getResponse().getStatusCode() == 403) {
-                response.redirect(SUB_ONLY_VIDEO);
-                return "";
+            String cachedResponse = cache.get(requestId);
+            String cachedId = requestId;
+            if (cachedResponse == null) {
+                cachedResponse = cache.get(variantsId);
+                cachedId = variantsId;
             }
-        }
+            if (cachedResponse != null) {
+                response.type("audio/mpegurl");
+                MasterPlaylist masterPlaylist = PlaylistCache.getMasterPlaylist(cachedId, cachedResponse,
+                        cachedId.equals(variantsId) ? PlaylistCache.TIMEOUT_LONG : PlaylistCache.TIMEOUT);
+                String cachedPlaylist = cleanMasterPlaylist(masterPlaylist, fps, quality, model);
+                return cachedPlaylist.isEmpty() ? null : cachedPlaylist;
+            }
+            // Fetch live data
+            Webb webb = getWebb();
+            // TODO When the API transitions to Helix the Authentication header will change
+            if (userToken != null)
+                webb = getPrivilegedWebbKraken(userToken);
+            // Request VOD token
+            Token token = getVideoAccessToken(Token.TYPE.VOD, vodId, userToken);
 
-        // Parse playlist
-        if (playlistString == null || playlistString.isEmpty())
-            return null;
-        // Cache and return
-        // Do not cache playlist if the user token is not set
-        if (userToken != null && !userToken.isEmpty())
-            cache.set(requestId, playlistString);
-        response.type("audio/mpegurl");
-        String cleanedPlaylist = cleanMasterPlaylist(playlistString, fps, quality, model);
-        return cleanedPlaylist.isEmpty() ? null : cleanedPlaylist;
+            // Request HLS playlist
+            String hlsPlaylistUrl = String.format(API_USHER + "/vod/%s.m3u8", vodId);
+            String playlistString = null;
+            try {
+                Logger.verbose( "Rest Request to [%s]", hlsPlaylistUrl);
+                Response<String> webbResponse = webb.get(hlsPlaylistUrl)
+                        .header("Accept", "*/*")
+                        .param("nauth", token.getToken())
+                        .param("nauthsig", token.getSig())
+                        .param("p", String.valueOf((int) (Math.random() * Integer.MAX_VALUE)))
+                        .param("type", "any")
+                        .param("allow_audio_only", "true")
+                        .param("allow_source", "true")
+                        .ensureSuccess()
+                        .asString();
+                playlistString = webbResponse.getBody();
+            }
+            catch (WebbException e) {
+                Logger.warn("Request failed: " + e.getMessage());
+                Logger.exception(e);
+                // Redirect to sub only warning video
+                if (e.getResponse().getStatusCode() == 403) {
+                    response.redirect(SUB_ONLY_VIDEO);
+                    return "";
+                }
+            }
+
+            // Parse playlist
+            if (playlistString == null || playlistString.isEmpty())
+                return null;
+            // Cache and return
+            // Playlists without the signature of the token are shared by all viewers. Without a signature to look
+            // for, the playlist is treated as signed.
+            MasterPlaylist masterPlaylist;
+            String sig = token.getSig();
+            if (sig != null && !sig.isEmpty() && !playlistString.contains(sig)) {
+                cache.set(variantsId, playlistString, ApiCache.TIMEOUT_WEEK);
+                masterPlaylist = PlaylistCache.getMasterPlaylist(variantsId, playlistString,
+                        PlaylistCache.TIMEOUT_LONG);
+            }
+            else {
+                int timeout = getVodPlaylistTimeout(token);
+                if (timeout > 0) {
+                    cache.set(requestId, playlistString, timeout);
+                    masterPlaylist = PlaylistCache.getMasterPlaylist(requestId, playlistString);
+                }
+                else
+                    masterPlaylist = new MasterPlaylist(playlistString, 0);
+            }
+            response.type("audio/mpegurl");
+            String cleanedPlaylist = cleanMasterPlaylist(masterPlaylist, fps, quality, model);
+            return cleanedPlaylist.isEmpty() ? null : cleanedPlaylist;
+        }
+        finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -478,25 +628,30 @@ public class TwitchUnofficialApi {
      * If the playlist could not be parsed the playlist will be returned "raw!" - Gordon Ramsay
      * Quality and FPS will be limited regardless of requested parameters if the Roku model passed is not null and that
      * model cannot perform at that quality.
-     * @param playlistString raw playlist string
+     * The result is stored on the master playlist, so a variant is only generated once per master playlist.
+     * @param masterPlaylist parsed master playlist
      * @param fps limit streams to this fps and lower
      * @param  quality limit streams to the quality or lower
      * @return clean master playlist
      */
     @NotCached
-    private static String cleanMasterPlaylist(String playlistString, int fps, String quality,
+    private static String cleanMasterPlaylist(MasterPlaylist masterPlaylist, int fps, String quality,
                                               @Nullable String model) {
+        // Check for a previously generated variant
+        StreamQualityIndex streamQualityIndex = TwitchedApi.getStreamQualityIndex();
+        String variantKey = ApiCache.createKey("variant", model, fps < 60 ? 30 : 60,
+                StringUtil.parseLong(quality.replace("p", "")), streamQualityIndex.getVersion());
+        String variant = masterPlaylist.getVariant(variantKey);
+        if (variant != null)
+            return variant;
         // Determine max quality
-        StreamQuality maxQuality = getMaxQualityForModel(quality, fps, model);
-        // Parse lines
-        Map<String, Object> parsedPlaylist = playlistStringToList(playlistString);
-        List<String> playlist = (List<String>) parsedPlaylist.get("lines");
-        List<Playlist> playlists = (List<Playlist>) parsedPlaylist.get("playlists");
+        StreamQualityFilter maxQuality = getMaxQualityForModel(streamQualityIndex, quality, fps, model);
         // Add compatible playlists
+        List<String> playlist = new ArrayList<>(masterPlaylist.getHeaderLines());
         boolean addedPlaylist = false;
         // Create a sublist of playlists that match or are below the requested quality
         List<Playlist> playlistsMeetingQuality = new ArrayList<>();
-        for (Playlist stream : playlists)
+        for (Playlist stream : masterPlaylist.getPlaylists())
             if (maxQuality.meetsQuality(stream) && stream.isVideo())
                 playlistsMeetingQuality.add(stream);
         // Add streams to the master playlist
@@ -508,12 +663,16 @@ public class TwitchUnofficialApi {
         }
         // If no playlist were added, add them all
         if (!addedPlaylist)
-            return playlistString;
+            variant = masterPlaylist.getRaw();
+        else {
+            StringBuilder cleanedPlaylist = new StringBuilder();
+            for (String line : playlist)
+                cleanedPlaylist.append(line).append("\r\n");
+            variant = cleanedPlaylist.toString();
+        }
         // Return playlist
-        StringBuilder cleanedPlaylist = new StringBuilder();
-        for (String line : playlist)
-            cleanedPlaylist.append(line).append("\r\n");
-        return cleanedPlaylist.toString();
+        masterPlaylist.putVariant(variantKey, variant);
+        return variant;
     }
 
     /**
@@ -523,60 +682,34 @@ public class TwitchUnofficialApi {
      * and key "playlists" set to a string array of playlists
      */
     public static Map<String, Object> playlistStringToList(@NotNull String playlistString) {
-        List<String> playlist = new ArrayList<>();
-        List<Playlist> playlists = new ArrayList<>();
-        String[] playlistSplit = playlistString.split("\r?\n");
-        for (int lineIndex = 0; lineIndex < playlistSplit.length; lineIndex++) {
-            String line = playlistSplit[lineIndex];
-            // Not media line
-            if (!line.startsWith("#EXT-X-MEDIA")) {
-                playlist.add(line);
-            }
-            // Media line
-            else {
-                // EOF - add line but do not force add others
-                if (lineIndex + 2 >= playlistSplit.length) {
-                    playlist.add(line);
-                }
-                // Add line and two after it to playlists list
-                else {
-                    Playlist stream = new Playlist(line, playlistSplit[lineIndex + 1], playlistSplit[lineIndex + 2]);
-                    playlists.add(stream);
-                    lineIndex += 2;
-                }
-            }
-        }
+        MasterPlaylist masterPlaylist = new MasterPlaylist(playlistString, 0);
         Map<String, Object> map = new HashMap<>();
-        map.put("lines", playlist);
-        map.put("playlists", playlists);
+        map.put("lines", new ArrayList<>(masterPlaylist.getHeaderLines()));
+        map.put("playlists", new ArrayList<>(masterPlaylist.getPlaylists()));
         return map;
     }
 
     /**
-     * Return a Playlist representing the max resolution quality for a model of roku
+     * Return a filter representing the max resolution quality for a model of roku
+     * @param streamQualityIndex stream qualities indexed by model
      * @param quality default quality. If this is less than the max for a model, it will be returned
      * @param fps default fps
      * @param model roku model in the format nnnnX
      * @return largest supported or specified quality
      */
     @NotCached
-    private static StreamQuality getMaxQualityForModel(String quality, int fps, @Nullable String model) {
+    private static StreamQualityFilter getMaxQualityForModel(StreamQualityIndex streamQualityIndex, String quality,
+                                                             int fps, @Nullable String model) {
         int requestedQuality = (int) StringUtil.parseLong(quality.replace("p", ""));
         if (model == null)
             model = "null";
-        List<StreamQuality> streamQualities = TwitchedApi.getStreamQualities();
-        for (StreamQuality streamQuality : streamQualities) {
-            if (streamQuality.validate() && streamQuality.getModel().equals(model)) {
-                if (fps < 60)
-                    streamQuality.disable60();
-                streamQuality.limitQuality(requestedQuality);
-                return streamQuality;
-            }
-        }
+        StreamQualityFilter streamQualityFilter = streamQualityIndex.get(model);
+        if (streamQualityFilter != null)
+            return streamQualityFilter.limit(fps, requestedQuality);
         // Quality not found in database
         // Send a sensible 720p 30fps 7mbps default quality
-        return new StreamQuality(model, 7000000, "", true, false, true,
-                false, true, false, true, false, true);
+        return new StreamQualityFilter(new StreamQuality(model, 7000000, "", true, false, true,
+                false, true, false, true, false, true));
     }
 
     /**
@@ -586,16 +719,18 @@ public class TwitchUnofficialApi {
      */
     @NotCached
     static void init(String twitchClientId, @Nullable String twitchClientSecret) {
-        TwitchUnofficialApi.gson = new Gson();
+        TwitchUnofficialApi.gson = JsonUtil.getGson();
         TwitchUnofficialApi.twitchCredentials = new TwitchCredentials(twitchClientId, twitchClientSecret,
                 getAppToken(twitchClientId, twitchClientSecret));
         if (TwitchUnofficialApi.twitchCredentials.getAppToken() == null)
             Logger.warn("No Oauth token provided. Requests will be rate limited to 30 per minute.");
         // Start background thread
-        TwitchUnofficialApi.followsThread = new Thread(new FollowsCacher());
+        TwitchUnofficialApi.followsThread = new Thread(new FollowsCacher(FOLLOWS_THREADS));
         TwitchUnofficialApi.followsThread.setName("Follows Thread");
         TwitchUnofficialApi.followsThread.setDaemon(true);
         TwitchUnofficialApi.followsThread.start();
+        LiveStreamIndexer.start();
+        TopSnapshotPublisher.start();
     }
 
     /**
@@ -801,7 +936,7 @@ public class TwitchUnofficialApi {
      * @return stream json with usernames added to each stream as "user_name"
      */
     @Cached
-    static String getStreamsHelix(Request request, @SuppressWarnings("unused") spark.Response response) {
+    static String getStreamsHelix(Request request, spark.Response response) {
         checkAuth(request);
         // Params
         String after = request.queryParams("after");
@@ -842,6 +977,8 @@ public class TwitchUnofficialApi {
         String offset = request.queryParams("offset");
         if (first == null)
             first = request.queryParamOrDefault("limit", "20");
+        ClientProfile profile = HeaderUtil.extractProfile(request);
+        boolean hasCursor = after != null || before != null;
         // Set after based on offset
         String afterFromOffset = getAfterFromOffset(offset, first);
         if (afterFromOffset != null)
@@ -855,13 +992,31 @@ public class TwitchUnofficialApi {
         // Check streams cache
         if (after == null && before == null && community == null && game == null && languages.size() == 0 &&
                 streamType.equals("all") && userIds.size() > 0 && userLogins.size() == 0) {
+            String cachedJson = cache.getStreamsJson(userIds, !profile.shouldSendLogin());
+            if (cachedJson != null) {
+                if (userIds.size() == 1)
+                    prefetchHls(null, userIds, userLogins, request);
+                return ResponseUtil.compressAndSend(request, response, cachedJson);
+            }
             @NotNull CachedStreams cachedStreams = cache.getStreams(userIds);
             List<Stream> cachedStreamsList =
                     cachedStreams.getStreams();
             if (cachedStreamsList != null && cachedStreamsList.size() == userIds.size()) {
-                return gson.toJson(cachedStreamsList);
+                if (cachedStreamsList.size() == 1)
+                    prefetchHls(cachedStreamsList, userIds, userLogins, request);
+                return ResponseUtil.compressAndSend(request, response, gson.toJson(cachedStreamsList));
             }
         }
+        // Check snapshot
+        // Snapshots are built from live streams. They also answer "all" requests, which then omit the rare streams
+        // of other types, the same as the live index.
+        if (!hasCursor && community == null && game != null && languages.size() == 0 && userIds.size() == 0 &&
+                userLogins.size() == 0 && (streamType.equals("all") || streamType.equals("live")) &&
+                profile.shouldSendLogin()) {
+            String snapshot = getSnapshotSlice(game, offset, first);
+            if (snapshot != null)
+                return ResponseUtil.compressAndSend(request, response, snapshot);
+        }
         // Check page cache
         List<Object> requestParams = new ArrayList<>();
         requestParams.add(after);
@@ -874,9 +1029,9 @@ public class TwitchUnofficialApi {
         requestParams.addAll(userIds);
         requestParams.addAll(userLogins);
         requestParams.add(offset);
-        requestParams.add(HeaderUtil.extractVersion(request));
+        requestParams.add(profile.getId());
         String requestId = ApiCache.createKey("helix/streams", requestParams);
-        String cachedResponse = cache.get(requestId);
+        CachedResponse cachedResponse = ResponseUtil.getCached(requestId);
         if (cachedResponse != null) {
             // If this is a single stream status, add it to the cacher to update the status when there is time
             if (userIds.size() + userLogins.size() == 1) {
@@ -884,8 +1039,18 @@ public class TwitchUnofficialApi {
                     addStreamToStatusUpdateQueue(userIds.get(0), StreamStatusQueue.Type.ID);
                 else if (userLogins.size() == 1)
                     addStreamToStatusUpdateQueue(userLogins.get(0), StreamStatusQueue.Type.LOGIN);
+                if (!ResponseUtil.isEmptyArray(cachedResponse.getBody()))
+                    prefetchHls(null, userIds, userLogins, request);
             }
-            return cachedResponse;
+            return ResponseUtil.send(request, response, cachedResponse);
+        }
+
+        // Check live index
+        if (!hasCursor && community == null && userIds.size() == 0 && userLogins.size() == 0 &&
+                (streamType.equals("all") || streamType.equals("live"))) {
+            String json = getStreamsFromLiveIndex(offset, first, game, languages, profile);
+            if (json != null)
+                return ResponseUtil.cacheAndSend(request, response, requestId, json);
         }
 
         // Request live
@@ -899,13 +1064,83 @@ public class TwitchUnofficialApi {
                 streamType,
                 userIds,
                 userLogins,
-                HeaderUtil.extractVersion(request)
+                profile
         );
 
         // Cache and return
-        String json = gson.toJson(streams);
-        cache.set(requestId, json);
-        return json;
+        if (streams.size() == 1 && userIds.size() + userLogins.size() == 1)
+            prefetchHls(streams, userIds, userLogins, request);
+        return ResponseUtil.cacheAndSend(request, response, requestId, gson.toJson(streams));
+    }
+
+    /**
+     * Get a page of live streams from the live stream index
+     * @param offset page number starting at 1
+     * @param first limit
+     * @param game optional game id
+     * @param languages languages - empty for all
+     * @param profile client profile
+     * @return stream json or null if the index cannot answer the request
+     */
+    @Nullable
+    private static String getStreamsFromLiveIndex(@Nullable String offset, String first, @Nullable String game,
+                                                  List<String> languages, ClientProfile profile) {
+        if (!LiveStreamIndexer.isEnabled())
+            return null;
+        long limit;
+        long page;
+        try {
+            limit = Long.parseLong(first);
+            page = offset == null ? 1 : Long.parseLong(offset);
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+        if (limit < 1 || limit > 100 || page < 1)
+            return null;
+        List<String> ids = cache.getLiveIndexPage(game, languages, (page - 1) * limit, limit,
+                LiveStreamIndexer.getMaxAge());
+        if (ids == null)
+            return null;
+        // Join the cached stream json when every stream is still live
+        String json = cache.getStreamsJson(ids, !profile.shouldSendLogin());
+        if (json != null)
+            return json;
+        // Streams that went offline since the index was built are skipped. Streams that are no longer cached are not.
+        CachedStreams cachedStreams = cache.getStreams(ids);
+        if (cachedStreams.getMissingIds().size() > 0)
+            return null;
+        Map<String, Stream> streamsById = cachedStreams.getOnlineStreams();
+        boolean shouldSendLogin = profile.shouldSendLogin();
+        List<Stream> streams = new ArrayList<>();
+        for (String id : ids) {
+            Stream stream = streamsById.get(id);
+            if (stream == null)
+                continue;
+            if (!shouldSendLogin)
+                stream.getUserName().setLogin("");
+            streams.add(stream);
+        }
+        return gson.toJson(streams);
+    }
+
+    /**
+     * Prefetch the HLS master playlist of a single requested live stream
+     * @param streams streams returned for the request or null if not known
+     * @param userIds requested user ids
+     * @param userLogins requested user logins
+     * @param request request the streams were requested with
+     */
+    private static void prefetchHls(@Nullable List<Stream> streams, List<String> userIds, List<String> userLogins,
+                                    Request request) {
+        String username = null;
+        if (streams != null && streams.size() == 1 && streams.get(0).getUserName() != null)
+            username = streams.get(0).getUserName().getLogin();
+        if ((username == null || username.isEmpty()) && userLogins.size() == 1)
+            username = userLogins.get(0);
+        if ((username == null || username.isEmpty()) && userIds.size() == 1)
+            username = ":" + userIds.get(0);
+        HlsPrefetcher.prefetch(username, AuthUtil.extractTwitchToken(request));
     }
 
     /**
@@ -915,19 +1150,14 @@ public class TwitchUnofficialApi {
      */
     private static void addStreamToStatusUpdateQueue(String userIdentifier, StreamStatusQueue.Type type) {
         StreamStatusQueue item = new StreamStatusQueue(userIdentifier, type);
-        synchronized (followIdsToCache) {
-            if (!followIdsToCache.contains(item)) {
-                Logger.debug("Adding stream with id %s to the status update queue.", userIdentifier);
-                if (!followIdsToCache.offer(item))
-                    Logger.debug("Failed to add stream with id %s to the status update queue.");
-            }
-            else
-                Logger.debug("Stream with id %s already queued in the update queue.", userIdentifier);
-        }
+        if (followIdsToCache.offer(item))
+            Logger.debug("Added stream with id %s to the status update queue.", userIdentifier);
+        else
+            Logger.debug("Stream with id %s already queued or dropped from the update queue.", userIdentifier);
     }
 
     /**
-     * @see TwitchUnofficialApi#getStreams(String, String, List, String, List, List, String, List, List, ComparableVersion, Boolean)
+     * @see TwitchUnofficialApi#getStreams(String, String, List, String, List, List, String, List, List, ClientProfile, Boolean)
      */
     @NotNull
     @Cached
@@ -941,9 +1171,9 @@ public class TwitchUnofficialApi {
             @Nullable String streamType,
             @Nullable List<String> userIdsParam,
             @Nullable List<String> userLoginsParam,
-            @Nullable ComparableVersion version) {
+            @Nullable ClientProfile profile) {
         return getStreams(after, before, communities, first, games, languages, streamType, userIdsParam,
-                userLoginsParam, version, true);
+                userLoginsParam, profile, true);
     }
 
     /**
@@ -957,7 +1187,7 @@ public class TwitchUnofficialApi {
      * @param streamType stream type
      * @param userIdsParam user ids
      * @param userLoginsParam user logins
-     * @param version twitched version from request
+     * @param profile client profile from request
      * @param shouldFetchLive should the data be fetch live or only cached results returned
      * @return streams
      */
@@ -973,21 +1203,28 @@ public class TwitchUnofficialApi {
             @Nullable String streamType,
             @Nullable List<String> userIdsParam,
             @Nullable List<String> userLoginsParam,
-            @Nullable ComparableVersion version,
+            @Nullable ClientProfile profile,
             @Nullable Boolean shouldFetchLive) {
         List<Stream> streams = new ArrayList<>();
         CachedStreams cachedStreams = new CachedStreams();
         if ((userIdsParam != null && userIdsParam.size() > 0) ||
                 (userLoginsParam != null && userLoginsParam.size() > 0)) {
-            // Check cache
+            // Check cache - the streams of ids and the ids of logins are fetched together
             List<String> allIds = new ArrayList<>();
             if (userIdsParam != null)
                 allIds.addAll(userIdsParam);
+            CacheBatch batch = new CacheBatch()
+                    .add(ApiCache.STREAM_PREFIX, allIds)
+                    .add(ApiCache.USER_ID_PREFIX, userLoginsParam);
+            cache.mget(batch);
             if (userLoginsParam != null) {
-                allIds.addAll(getUserIds(userLoginsParam).values());
+                allIds.addAll(addMissingUserIds(cache.getUserIds(userLoginsParam, batch)).values());
+                // Only the streams of login ids that were not requested as ids are fetched
+                batch.add(ApiCache.STREAM_PREFIX, allIds);
+                cache.mget(batch);
             }
-            cachedStreams = cache.getStreams(allIds);
-            if (version != null && version.compareTo(new ComparableVersion("1.4.2400")) == 0) {
+            cachedStreams = cache.getStreams(allIds, batch);
+            if (profile != null && !profile.shouldSendLogin()) {
                 for (Stream stream : cachedStreams.getStreams()) {
                     UserName username = stream.getUserName();
                     username.setLogin("");
@@ -1058,15 +1295,16 @@ public class TwitchUnofficialApi {
         }
 
         // Add user names and game names to data
-        addNamesToStreams(streams, version);
-        addEncryptedStatusToStreams(streams);
+        getNameEnricher(streams, profile).flagEncrypted().apply(streams);
 
         // Cache streams
         ArrayList<Stream> offlineAndOnlineStreams =
                 new ArrayList<>(streams);
+        Set<String> streamIds = StreamUtil.getUserIds(streams);
+        Set<String> streamLogins = StreamUtil.getUserLogins(streams);
         if (userIdsParam != null) {
             for (String userId : userIdsParam) {
-                if (!StreamUtil.streamListContainsId(streams, userId)) {
+                if (!streamIds.contains(userId)) {
                     Stream stream =
                             new Stream();
                     stream.setUserId(userId);
@@ -1078,7 +1316,7 @@ public class TwitchUnofficialApi {
         }
         if (userLoginsParam != null) {
             for (String userLogin : userLoginsParam) {
-                if (!StreamUtil.streamListContainsLogin(streams, userLogin)) {
+                if (!streamLogins.contains(userLogin)) {
                     Stream stream =
                             new Stream();
                     stream.setUserId("");
@@ -1089,27 +1327,89 @@ public class TwitchUnofficialApi {
             }
         }
         // Cache ensuring cached streams are not recached
-        offlineAndOnlineStreams.removeAll(cachedStreams.getStreams());
+        Set<String> cachedIds = cachedStreams.getOnlineIds();
+        offlineAndOnlineStreams.removeIf(stream -> cachedIds.contains(stream.getUserId()));
         cache.cacheStreams(offlineAndOnlineStreams);
 
         return streams;
     }
 
     /**
-     * Sets streams encrypted status to true for stream that require widevine
-     * TODO Poll the GQL Twitch endpoint to determine if the stream is encrypted
-     * @param streams streams to check
+     * Request a page of all live streams, sorted by viewers
+     * User and game names are not added. Missing names may need requests of their own, so callers that spread
+     * requests over the rate limit count them with getNameRequests before adding them with addNames.
+     * @param gameId optional game id to limit streams to
+     * @param after pagination cursor
+     * @return stream list or null if the request failed
      */
-    private static void addEncryptedStatusToStreams(List<Stream> streams) {
-        for (Stream stream : streams) {
-            // Prime Video
-            if (stream.getUserId() != null && stream.getUserId().equals("168843586")) {
-                // NFL stream
-                if (stream.getTitle() != null && stream.getTitle().toUpperCase().contains("NFL")) {
-                    stream.setEncrypted(true);
-                }
-            }
+    @Nullable
+    public static StreamList getLiveStreamsPage(@Nullable String gameId, @Nullable String after) {
+        String requestUrl = String.format("%s/streams", API);
+        Webb webb;
+        if (getTwitchCredentials().getAppToken() != null)
+            webb = getPrivilegedWebb(getTwitchCredentials().getAppToken());
+        else
+            webb = getWebb();
+        Map<String, Object> params = new HashMap<>();
+        params.put("first", "100");
+        params.put("type", "live");
+        if (gameId != null)
+            params.put("game_id", gameId);
+        if (after != null)
+            params.put("after", after);
+        StreamList streamList;
+        try {
+            Logger.verbose( "Rest Request to [%s]", requestUrl);
+            Response<String> response = webb.get(requestUrl)
+                    .params(params)
+                    .ensureSuccess()
+                    .asString();
+            logTwitchRateLimit(response);
+            streamList = parseStreamListJson(response.getBody());
+        }
+        catch (WebbException e) {
+            Logger.warn("Request failed: " + e.getMessage());
+            return null;
         }
+        catch (JsonSyntaxException | IllegalStateException e) {
+            Logger.exception(e);
+            return null;
+        }
+        if (streamList.getStreams() == null)
+            return null;
+        return streamList;
+    }
+
+    /**
+     * Count the Twitch requests needed to add user and game names to streams
+     * @param streams streams names will be added to
+     * @return amount of user and game requests for names missing from the cache
+     */
+    public static int getNameRequests(List<Stream> streams) {
+        CacheBatch batch = getNameBatch(streams);
+        return getMissingRequests(batch.get(ApiCache.USER_NAME_FIELD_PREFIX)) +
+                getMissingRequests(batch.get(ApiCache.GAME_NAME_FIELD_PREFIX));
+    }
+
+    /**
+     * Count the requests needed to fetch json missing from the cache
+     * @param nameIdMap map <id, @Nullable json> of cached json
+     * @return amount of requests of up to 100 ids
+     */
+    private static int getMissingRequests(Map<String, @Nullable String> nameIdMap) {
+        int missing = 0;
+        for (String json : nameIdMap.values())
+            if (json == null)
+                missing++;
+        return (missing + 99) / 100;
+    }
+
+    /**
+     * Add user and game names to streams, requesting names missing from the cache
+     * @param streams streams to add names to
+     */
+    public static void addNames(List<Stream> streams) {
+        getNameEnricher(streams, null).flagEncrypted().apply(streams);
     }
 
     /**
@@ -1141,7 +1441,15 @@ public class TwitchUnofficialApi {
      * @return map of user ids <login, @nullable id>
      */
     private static Map<String, String> getUserIds(@Nullable List<String> logins) {
-        Map<String, String> cachedLogins = cache.getUserIds(logins);
+        return addMissingUserIds(cache.getUserIds(logins));
+    }
+
+    /**
+     * Request user ids missing from the cache and cache them
+     * @param cachedLogins map of user ids <login, @nullable id> found in the cache - missing ids are added to it
+     * @return the user id map
+     */
+    private static Map<String, String> addMissingUserIds(Map<String, String> cachedLogins) {
         List<String> missingLogins = new ArrayList<>();
         for (Map.Entry<String, String> cachedId : cachedLogins.entrySet())
             if (cachedId.getValue() == null)
@@ -1159,60 +1467,58 @@ public class TwitchUnofficialApi {
     }
 
     /**
-     * @see TwitchUnofficialApi#addNamesToStreams(List, ComparableVersion)
+     * Create a stream enricher that adds user names and game names to streams
+     * The users and games of every stream are fetched from the cache with one request. Missing users and games are
+     * requested from Twitch.
+     * @param streams streams that will be enriched
+     * @param profile client profile from request
+     * @return enricher with the names step added
      */
-    @NotCached
-    private static void addNamesToStreams(List<Stream>
-                                                  streams) {
-        addNamesToStreams(streams, null);
-    }
-
-    /**
-     * Add user names and game names to a list of streams
-     * @param streams stream list
-     */
-    @NotCached
-    private static void addNamesToStreams(List<Stream>
-                                                      streams, @Nullable ComparableVersion version) {
-        List<String> gameIds = new ArrayList<>();
-        List<String> userIds = new ArrayList<>();
-        for (Stream stream : streams) {
-            userIds.add(stream.getUserId());
-            gameIds.add(stream.getGameId());
-        }
+    @Cached
+    private static StreamEnricher getNameEnricher(List<Stream> streams, @Nullable ClientProfile profile) {
+        CacheBatch batch = getNameBatch(streams);
         Map<String, User> users;
         try {
-            users = getCachedUsers(userIds);
+            users = parseUsersJson(addMissingJson(batch.get(ApiCache.USER_NAME_FIELD_PREFIX), Id.USER));
         }
         catch (HaltException | WebbException e) {
             Logger.exception(e);
             users = new HashMap<>();
         }
-        Map<String, String> gameNames;
+        Map<String, String> gameNames = new HashMap<>();
         try {
-            int gameIdsCount = 0;
-            for (String gameId : gameIds)
-                if (gameId != null && !gameId.isEmpty())
-                    gameIdsCount++;
-            if (gameIdsCount > 0)
-                gameNames = getGameNames(gameIds);
-            else
-                gameNames = new HashMap<>();
+            for (Map.Entry<String, @Nullable Game> game : parseGamesJson(addMissingJson(
+                    batch.get(ApiCache.GAME_NAME_FIELD_PREFIX), Id.GAME)).entrySet())
+                if (game.getValue() != null)
+                    gameNames.put(game.getKey(), game.getValue().getName());
         }
         catch (HaltException | WebbException e) {
             Logger.exception(e);
-            gameNames = new HashMap<>();
         }
+        return new StreamEnricher().addNames(users, gameNames, profile);
+    }
+
+    /**
+     * Fetch the cached users and games of streams
+     * @param streams streams
+     * @return batch with the user and game json found in the cache
+     */
+    private static CacheBatch getNameBatch(List<Stream> streams) {
+        Set<String> userIds = new HashSet<>();
+        Set<String> gameIds = new HashSet<>();
         for (Stream stream : streams) {
-            User user = users.get(stream.getUserId());
-            boolean shouldSendLogin = version == null || version.compareTo(new ComparableVersion("1.4.2400")) != 0;
-            stream.setUserName(user == null || user.getDisplayName() == null || user.getDisplayName().isEmpty() ||
-                    user.getLogin() == null || user.getLogin().isEmpty() ?
-                    new UserName("" , "") :
-                    new UserName(shouldSendLogin ? user.getLogin() : "", user.getDisplayName()));
-            String gameName = gameNames.get(stream.getGameId());
-            stream.setGameName(gameName == null ? "" : gameName);
+            if (stream == null)
+                continue;
+            if (stream.getUserId() != null)
+                userIds.add(stream.getUserId());
+            if (stream.getGameId() != null && !stream.getGameId().isEmpty())
+                gameIds.add(stream.getGameId());
         }
+        CacheBatch batch = new CacheBatch()
+                .add(ApiCache.USER_NAME_FIELD_PREFIX, userIds)
+                .add(ApiCache.GAME_NAME_FIELD_PREFIX, gameIds);
+        cache.mget(batch);
+        return batch;
     }
 
     /**
@@ -1289,7 +1595,15 @@ public class TwitchUnofficialApi {
      */
     @Cached
     private static Map<String, @Nullable Game> getCachedGames(List<String> gameIds) {
-        Map<String, String> gamesJson = getCachedJsonForIds(gameIds, Id.GAME, true);
+        return parseGamesJson(getCachedJsonForIds(gameIds, Id.GAME, true));
+    }
+
+    /**
+     * Parse game json
+     * @param gamesJson json mapped to ids
+     * @return games mapped to ids - games that fail to parse will be null
+     */
+    private static Map<String, @Nullable Game> parseGamesJson(Map<String, String> gamesJson) {
         Map<String, Game> games = new HashMap<>();
         for (Map.Entry<String, String> gameJson : gamesJson.entrySet()) {
             try {
@@ -1311,7 +1625,15 @@ public class TwitchUnofficialApi {
      */
     @Cached
     private static Map<String, @Nullable User> getCachedUsers(List<String> userIds, boolean shouldFetchLive) {
-        Map<String, String> usersJson = getCachedJsonForIds(userIds, Id.USER, shouldFetchLive);
+        return parseUsersJson(getCachedJsonForIds(userIds, Id.USER, shouldFetchLive));
+    }
+
+    /**
+     * Parse user json
+     * @param usersJson json mapped to ids
+     * @return users mapped to ids - users that fail to parse will be null
+     */
+    private static Map<String, @Nullable User> parseUsersJson(Map<String, String> usersJson) {
         Map<String, User> users = new HashMap<>();
         for (Map.Entry<String, String> userJson : usersJson.entrySet()) {
             try {
@@ -1359,6 +1681,17 @@ public class TwitchUnofficialApi {
         // If live data should not be fetched, return what was found
         if (!shouldFetchLive)
             return nameIdMap;
+        return addMissingJson(nameIdMap, type);
+    }
+
+    /**
+     * Request user or game json missing from the cache and cache it
+     * @param nameIdMap map <id, @Nullable json> of cached json - missing json is added to it
+     * @param type type of ids
+     * @return the json map
+     */
+    @NotCached
+    private static Map<String, @Nullable String> addMissingJson(Map<String, @Nullable String> nameIdMap, Id type) {
         // Find missing ids
         List<String> missingIds = new ArrayList<>();
         for (Map.Entry<String, String> nameId : nameIdMap.entrySet())
@@ -1542,8 +1875,7 @@ public class TwitchUnofficialApi {
                     token != null) {
                 // Redirect to the validate endpoint for versions prior to 1.4
                 if (request != null && response != null) {
-                    ComparableVersion version = HeaderUtil.extractVersion(request);
-                    if (version.compareTo(new ComparableVersion("1.4")) < 0) {
+                    if (HeaderUtil.extractProfile(request).shouldRedirectExpiredToken()) {
                         response.redirect("/api/link/validate");
                     }
                 }
@@ -1642,12 +1974,11 @@ public class TwitchUnofficialApi {
         response.header("Twitch-User-ID", fromId);
         // Get follows
         List<Stream> streams =
-                getUserFollowedStreamsWithTimeout(fromId, 15000, HeaderUtil.extractVersion(request));
-        // Sort streams
-        streams.sort(new StreamViewComparator().reversed());
-        streams = streams.subList(0, Math.min((int) StringUtil.parseLong(limit), streams.size()));
-        // Cache and return
-        return gson.toJson(streams);
+                getUserFollowedStreamsWithTimeout(fromId, 15000, HeaderUtil.extractProfile(request));
+        // Select the most viewed streams
+        streams = StreamUtil.getTopStreams(streams, new StreamViewComparator(), (int) StringUtil.parseLong(limit));
+        // Return
+        return ResponseUtil.sendWithEtag(request, response, gson.toJson(streams));
     }
 
     /**
@@ -1655,16 +1986,21 @@ public class TwitchUnofficialApi {
      * If the timeout is reached, the fetched streams will be returned and the id will be added to the fetch queue
      * @param fromId id to get follows for
      * @param timeout timeout in milliseconds
-     * @param twitchedVersion twitched version string
+     * @param profile client profile from request
      * @return streams
      */
     @Cached
     private static List<Stream> getUserFollowedStreamsWithTimeout(
             String fromId, @SuppressWarnings("SameParameterValue") int timeout,
-            ComparableVersion twitchedVersion) throws HaltException {
+            ClientProfile profile) throws HaltException {
+        // Find the live follows in Redis when the follows are cached
+        LiveFollows liveFollows = cache.getLiveFollows(fromId);
+        if (liveFollows != null)
+            return getCachedUserFollowedStreams(fromId, liveFollows, timeout, profile);
         List<Stream> streams = new ArrayList<>();
         List<String> followIds = new ArrayList<>();
         List<Follow> followsOffline = new ArrayList<>();
+        Set<String> followIdsOffline = new HashSet<>();
         String pagination = null;
         long startTime = System.currentTimeMillis();
         boolean hasTime;
@@ -1676,9 +2012,13 @@ public class TwitchUnofficialApi {
                 throw halt(SERVER_ERROR, "Failed to connect to Twitch API");
             pagination = userFollows.getPagination() != null ? userFollows.getPagination().getCursor() : null;
             followIds.clear();
-            for (Follow follow : userFollows.getFollows())
-                if (follow.getToId() != null)
+            Map<String, Follow> pageFollows = new HashMap<>();
+            for (Follow follow : userFollows.getFollows()) {
+                if (follow.getToId() != null) {
                     followIds.add(follow.getToId());
+                    pageFollows.putIfAbsent(follow.getToId(), follow);
+                }
+            }
             if (followIds.size() > 0) {
                 for (int followIndex = 0; followIndex < followIds.size(); followIndex += 100) {
                     // Check if 10 seconds has passed
@@ -1697,19 +2037,13 @@ public class TwitchUnofficialApi {
                             (userFollows.getRateLimitRemaining() > RATE_LIMIT_MAX / 4 && userFollows.getTotal() <= 300);
                     @NotNull List<Stream> streamSublist =
                             getStreams(null, null, null, "100", null, null,
-                                    null, followsSublist, null, twitchedVersion,
+                                    null, followsSublist, null, profile,
                                     shouldFetchLive);
                     // Add streams to array
                     streams.addAll(streamSublist);
                     // Add follows to offline list
-                    if (followIds.size() > 0) {
-                        for (String followId : followIds)
-                            for (Follow follow : userFollows.getFollows())
-                                if (followId != null && followId.equals(follow.getToId()) &&
-                                        !followsOffline.contains(follow) &&
-                                        !StreamUtil.streamListContainsId(streamSublist, followId))
-                                    followsOffline.add(follow);
-                    }
+                    StreamUtil.addOfflineFollows(followsOffline, followIdsOffline, followsSublist, pageFollows,
+                            streamSublist);
                     // Log that live data was not used for a request
                     if (!shouldFetchLive) {
                         Logger.extra("Denied user follow streams request.\n\tReason: Rate limit too low\n" +
@@ -1723,18 +2057,43 @@ public class TwitchUnofficialApi {
         }
         while (followIds.size() == 100 && pagination != null && hasTime);
         // Add offline channels to list
+        if (hasTime)
+            streams.addAll(getOfflineFollowedStreams(followsOffline, streams.size(), shouldFetchLive,
+                    profile));
+        // Request offline user names from Redis
+        // Time expired - Send the data that was retrieved and add the user id to a background thread that caches
+        // follows. This is not likely to happen on accounts with less than 300 follows.
+        cacheFollows(fromId, FollowQueue.FollowType.CHANNEL);
+        return streams;
+    }
+
+    /**
+     * Create offline streams for followed channels that are not live
+     * At most 500 streams, including live streams, are returned to the client.
+     * @param followsOffline follows that are not live
+     * @param liveCount amount of live followed streams
+     * @param shouldFetchLive fetch users that are not cached
+     * @param profile client profile from request
+     * @return offline streams
+     */
+    private static List<Stream> getOfflineFollowedStreams(List<Follow> followsOffline, int liveCount,
+                                                          boolean shouldFetchLive,
+                                                          ClientProfile profile) {
         int followsOfflineMaxIndex = Math.min(followsOffline.size(), 500);
         if (followsOfflineMaxIndex == 500)
-            followsOfflineMaxIndex -= streams.size();
+            followsOfflineMaxIndex -= liveCount;
         if (followsOfflineMaxIndex < 0)
             followsOfflineMaxIndex = 0;
         followsOffline = followsOffline.subList(0, followsOfflineMaxIndex);
-        if (hasTime && followsOffline.size() > 0) {
+        List<Stream> offlineStreams = new ArrayList<>();
+        if (followsOffline.size() > 0) {
             List<String> followIdsOffline = new ArrayList<>();
-            for (Follow follow : followsOffline)
+            Map<String, String> followedAt = new HashMap<>();
+            for (Follow follow : followsOffline) {
                 followIdsOffline.add(follow.getToId());
+                followedAt.put(follow.getToId(), follow.getFollowedAt());
+            }
             Map<String, @Nullable User> offlineUsers = getCachedUsers(followIdsOffline, shouldFetchLive);
-            List<Stream> offlineStreams = new ArrayList<>();
             for (Map.Entry<String, User> offlineUser : offlineUsers.entrySet()) {
                 if (offlineUser.getValue() == null)
                     continue;
@@ -1753,20 +2112,63 @@ public class TwitchUnofficialApi {
                 offlineStream.setGameName("IRL");
                 offlineStream.setGameId("494717");
                 offlineStream.setOnline(false);
-                if (twitchedVersion.compareTo(new ComparableVersion("1.3")) >= 0)
-                    offlineStream.setType("user_follow");
-                else
-                    offlineStream.setType("user");
-                for (Follow follow : followsOffline)
-                    if (follow.getToId().equals(offlineUser.getKey()))
-                        offlineStream.setStartedAt(follow.getFollowedAt());
+                offlineStream.setType(profile.getOfflineFollowType());
+                if (followedAt.containsKey(offlineUser.getKey()))
+                    offlineStream.setStartedAt(followedAt.get(offlineUser.getKey()));
                 offlineStreams.add(offlineStream);
             }
-            streams.addAll(offlineStreams);
         }
-        // Request offline user names from Redis
-        // Time expired - Send the data that was retrieved and add the user id to a background thread that caches
-        // follows. This is not likely to happen on accounts with less than 300 follows.
+        return offlineStreams;
+    }
+
+    /**
+     * Get the followed streams of a user whose follows are cached
+     * Only the followed channels in the live set and channels without a cached status are requested. Requested
+     * channels that are found to be offline are added to the offline streams. As with uncached follows, offline
+     * streams are only added if the timeout was not reached.
+     * @param fromId user id
+     * @param liveFollows followed ids split by live status
+     * @param timeout timeout in milliseconds
+     * @param profile client profile from request
+     * @return live and offline followed streams
+     */
+    private static List<Stream> getCachedUserFollowedStreams(String fromId, LiveFollows liveFollows, int timeout,
+                                                             ClientProfile profile) {
+        List<Stream> streams = new ArrayList<>();
+        List<String> liveIds = new ArrayList<>(liveFollows.getLiveIds());
+        liveIds.addAll(liveFollows.getUnknownIds());
+        List<String> offlineIds = new ArrayList<>();
+        long startTime = System.currentTimeMillis();
+        boolean hasTime = true;
+        for (int followIndex = 0; followIndex < liveIds.size(); followIndex += 100) {
+            hasTime = System.currentTimeMillis() - startTime < timeout;
+            if (!hasTime)
+                break;
+            List<String> followsSublist = liveIds.subList(followIndex, Math.min(liveIds.size(), followIndex + 100));
+            @NotNull List<Stream> streamSublist = getStreams(null, null, null, "100", null, null,
+                    null, followsSublist, null, profile, true);
+            streams.addAll(streamSublist);
+            Set<String> streamIds = StreamUtil.getUserIds(streamSublist);
+            for (String followId : followsSublist)
+                if (!streamIds.contains(followId))
+                    offlineIds.add(followId);
+        }
+        hasTime = hasTime && System.currentTimeMillis() - startTime < timeout;
+        if (hasTime) {
+            offlineIds.addAll(liveFollows.getOfflineIds());
+            // Only the offline follows that can be returned need their followed_at
+            offlineIds = offlineIds.subList(0, Math.min(offlineIds.size(), 500));
+            Map<String, String> followedAt = cache.getFollowedAt(fromId, offlineIds);
+            List<Follow> followsOffline = new ArrayList<>();
+            for (String offlineId : offlineIds) {
+                Follow follow = new Follow();
+                follow.setToId(offlineId);
+                follow.setFromId(fromId);
+                follow.setFollowedAt(followedAt.get(offlineId));
+                followsOffline.add(follow);
+            }
+            streams.addAll(getOfflineFollowedStreams(followsOffline, streams.size(), true, profile));
+        }
         cacheFollows(fromId, FollowQueue.FollowType.CHANNEL);
         return streams;
     }
@@ -1783,14 +2185,10 @@ public class TwitchUnofficialApi {
         if (System.currentTimeMillis() - followIdCacheTime < 60 * 60 * 1000 && !force)
             return;
         FollowQueue followQueue = new FollowQueue(fromId, followType);
-        synchronized (followIdsToCache) {
-            if (!followIdsToCache.contains(followQueue)) {
-                Logger.debug("Adding user with id %s to the follows cacher.", fromId);
-                if (!followIdsToCache.offer(followQueue))
-                    Logger.debug("Failed to add user with id %s to follows cacher queue.");
-            } else
-                Logger.debug("User with id %s already queued in the follows cacher.", fromId);
-        }
+        if (followIdsToCache.offer(followQueue))
+            Logger.debug("Added user with id %s to the follows cacher.", fromId);
+        else
+            Logger.debug("User with id %s already queued or dropped from the follows cacher.", fromId);
     }
 
     /**
@@ -2035,7 +2433,7 @@ public class TwitchUnofficialApi {
                             null,
                             userIds,
                             null,
-                            HeaderUtil.extractVersion(request)
+                            HeaderUtil.extractProfile(request)
                     );
                 json = gson.toJson(streamsHelix);
                 break;
@@ -2080,7 +2478,7 @@ public class TwitchUnofficialApi {
                         null,
                         userIds,
                         null,
-                        HeaderUtil.extractVersion(request)
+                        HeaderUtil.extractProfile(request)
                 );
                 // Populate Streams
                 SimpleDateFormat krakenDateFormat = new SimpleDateFormat("E MMM dd HH:mm:ss z yyyy");
@@ -2187,7 +2585,7 @@ public class TwitchUnofficialApi {
      * @return json
      */
     @Cached
-    static String getTopGamesHelix(Request request, @SuppressWarnings("unused") spark.Response response) {
+    static String getTopGamesHelix(Request request, spark.Response response) {
         checkAuth(request);
         // Params
         String after = request.queryParams("after");
@@ -2197,17 +2595,39 @@ public class TwitchUnofficialApi {
         String offset = request.queryParams("offset");
         if (first == null)
             first = request.queryParamOrDefault("limit", "20");
+        // Check snapshot
+        if (after == null && before == null) {
+            String snapshot = getSnapshotSlice(null, offset, first);
+            if (snapshot != null)
+                return ResponseUtil.compressAndSend(request, response, snapshot);
+        }
         // Set after based on offset
         String afterFromOffset = getAfterFromOffset(offset, first);
         if (afterFromOffset != null)
             after = afterFromOffset;
         // Check cache
         String requestId = ApiCache.createKey("helix/games/top", after, before, first);
-        String cachedResponse = cache.get(requestId);
+        CachedResponse cachedResponse = ResponseUtil.getCached(requestId);
         if (cachedResponse != null)
-            return cachedResponse;
+            return ResponseUtil.send(request, response, cachedResponse);
 
         // Fetch live data
+        GameList gameList = getTopGamesPage(after, before, first);
+        if (gameList == null)
+            throw halt(BAD_GATEWAY, "Bad Gateway: Could not connect to Twitch API");
+        // Store and return
+        return ResponseUtil.cacheAndSend(request, response, requestId, gson.toJson(gameList.getGames()));
+    }
+
+    /**
+     * Request a page of top games from the Helix end point
+     * @param after cursor
+     * @param before cursor
+     * @param first limit
+     * @return game list or null if the request failed
+     */
+    @Nullable
+    public static GameList getTopGamesPage(@Nullable String after, @Nullable String before, String first) {
         String requestUrl = String.format("%s/games/top", API);
         Webb webb;
         if (getTwitchCredentials().getAppToken() != null)
@@ -2222,7 +2642,6 @@ public class TwitchUnofficialApi {
             params.put("before", before);
         params.put("first", first);
         // REST Request
-        List<Game> games = null;
         //noinspection Duplicates
         try {
             Logger.verbose( "Rest Request to [%s]", requestUrl);
@@ -2233,7 +2652,8 @@ public class TwitchUnofficialApi {
             logTwitchRateLimit(webbResponse);
             try {
                 GameList gameList = gson.fromJson(webbResponse.getBody(), GameList.class);
-                games = gameList.getGames();
+                if (gameList != null && gameList.getGames() != null)
+                    return gameList;
             }
             catch (JsonSyntaxException e) {
                 Logger.exception(e);
@@ -2243,12 +2663,32 @@ public class TwitchUnofficialApi {
             Logger.warn("Request failed: " + e.getMessage());
             Logger.exception(e);
         }
-        if (games == null)
-            throw halt(BAD_GATEWAY, "Bad Gateway: Could not connect to Twitch API");
-        // Store and return
-        String json = gson.toJson(games);
-        cache.set(requestId, json);
-        return json;
+        return null;
+    }
+
+    /**
+     * Get a page of top games or of a game's top streams from the published snapshot
+     * @param gameId game id to get streams for or null to get games
+     * @param offset page number starting at 1
+     * @param first limit
+     * @return json array or null if the snapshot cannot answer the request
+     */
+    @Nullable
+    private static String getSnapshotSlice(@Nullable String gameId, @Nullable String offset, String first) {
+        if (!TopSnapshotPublisher.isEnabled())
+            return null;
+        long limit;
+        long page;
+        try {
+            limit = Long.parseLong(first);
+            page = offset == null ? 1 : Long.parseLong(offset);
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+        if (limit < 1 || limit > 100 || page < 1)
+            return null;
+        return cache.getTopSnapshotSlice(gameId, (page - 1) * limit, limit);
     }
 
     /**
@@ -2300,7 +2740,7 @@ public class TwitchUnofficialApi {
             // Preload follows
             if (token != null) {
                 try {
-                    List<User> users = gson.fromJson(cachedResponse, new TypeToken<List<User>>() {}.getType());
+                    List<User> users = gson.fromJson(cachedResponse, JsonUtil.USER_LIST_TYPE);
                     if (users != null && users.size() == 1 && users.get(0).getId() != null)
                         cacheFollows(users.get(0).getId(), FollowQueue.FollowType.CHANNEL, true);
                 }
@@ -2386,13 +2826,15 @@ public class TwitchUnofficialApi {
         params.add(period);
         params.add(sort);
         params.add(type);
+        ClientProfile profile = HeaderUtil.extractProfile(request);
+        params.add(profile.getId());
         String requestId = ApiCache.createKey("helix/videos", params.toArray());
         String cachedResponse = cache.get(requestId);
         if (cachedResponse != null)
             return cachedResponse;
         // Request live data
         List<Stream> videos = getVideos(ids, userId, gameId, after,
-                before, first, language, period, sort, type, HeaderUtil.extractVersion(request));
+                before, first, language, period, sort, type, profile);
         if (videos == null)
             throw halt(BAD_GATEWAY, "Bad Gateway: Could not connect to Twitch API");
         // Add game to video
@@ -2418,7 +2860,7 @@ public class TwitchUnofficialApi {
      * @param period time period - all, day, month, week
      * @param sort sort method - time, trending, views
      * @param type type - all, upload, archive, highlight
-     * @param version requesting client version
+     * @param profile requesting client profile
      * @return list of videos
      */
     @NotCached
@@ -2434,7 +2876,7 @@ public class TwitchUnofficialApi {
             @Nullable String period,
             @Nullable String sort,
             @Nullable String type,
-            @Nullable ComparableVersion version) {
+            @Nullable ClientProfile profile) {
         // Rest template
         Webb webb;
         if (getTwitchCredentials().getAppToken() != null)
@@ -2476,44 +2918,13 @@ public class TwitchUnofficialApi {
             logTwitchRateLimit(response);
             StreamList streamList = parseStreamListJson(response.getBody());
             videos = streamList.getStreams();
-            // Convert the duration string to seconds
-            for (Stream video : videos) {
-                if (video.getDuration() == null)
-                    continue;
-                Matcher matcher = DURATION_REGEX.matcher(video.getDuration());
-                if (!matcher.matches())
-                    continue;
-                long durationSeconds = 0;
-                // Seconds
-                if (matcher.groupCount() >= 4)
-                    durationSeconds += StringUtil.parseLong(matcher.group(4));
-                // Minutes
-                if (matcher.groupCount() >= 3)
-                    durationSeconds += StringUtil.parseLong(matcher.group(3)) * 60;
-                // Hours
-                if (matcher.groupCount() >= 2)
-                    durationSeconds += StringUtil.parseLong(matcher.group(2)) * 60 * 60;
-                // Days
-                if (matcher.groupCount() >= 1)
-                    durationSeconds += StringUtil.parseLong(matcher.group(1)) * 24 * 60 * 60;
-                video.setDurationSeconds(durationSeconds);
-            }
         }
         catch (WebbException | JsonSyntaxException | IllegalStateException e) {
             Logger.warn("Request failed: " + e.getMessage());
             Logger.exception(e);
         }
-        if (videos != null) {
-            addNamesToStreams(videos);
-            if (version == null || version.compareTo(new ComparableVersion("1.5")) >= 0) {
-                for (Stream video : videos) {
-                    if (video.getThumbnailUrl() != null && !video.getThumbnailUrl().isEmpty()) {
-                        video.setThumbnailUrl(video.getThumbnailUrl().replace("%{width}", "{width}")
-                                .replace("%{height}", "{height}"));
-                    }
-                }
-            }
-        }
+        if (videos != null)
+            getNameEnricher(videos, null).parseDuration().normalizeThumbnailTemplate(profile).apply(videos);
         return videos;
     }
 
@@ -2590,6 +3001,8 @@ public class TwitchUnofficialApi {
         try {
             Logger.verbose("Rest Request to [%s]", requestUrl);
             webb.delete(requestUrl).body("").ensureSuccess().asVoid();
+            // Incremental follow refreshes only find new follows
+            cache.removeFollow(userId, id);
         }
         catch (WebbException e) {
             Logger.warn("Request failed: " + e.getMessage());
@@ -9,12 +9,14 @@ import com.goebl.david.Webb;
 import com.goebl.david.WebbException;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonSyntaxException;
-import com.google.gson.reflect.TypeToken;
 import com.rolandoislas.twitchunofficial.data.Constants;
 import com.rolandoislas.twitchunofficial.data.annotation.Cached;
 import com.rolandoislas.twitchunofficial.data.annotation.NotCached;
+import com.rolandoislas.twitchunofficial.data.model.CachedResponse;
+import com.rolandoislas.twitchunofficial.data.model.ClientProfile;
 import com.rolandoislas.twitchunofficial.data.model.FollowQueue;
 import com.rolandoislas.twitchunofficial.data.model.StreamQuality;
+import com.rolandoislas.twitchunofficial.data.model.StreamQualityIndex;
 import com.rolandoislas.twitchunofficial.data.model.json.cloudflare.CfVisitor;
 import com.rolandoislas.twitchunofficial.data.model.json.twitch.AccessToken;
 import com.rolandoislas.twitchunofficial.data.model.json.twitch.TokenValidation;
@@ -22,29 +24,36 @@ import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.User;
 import com.rolandoislas.twitchunofficial.data.model.json.twitch.kraken.Community;
 import com.rolandoislas.twitchunofficial.data.model.json.twitched.AdServer;
 import com.rolandoislas.twitchunofficial.data.model.json.twitched.AdServerList;
+import com.rolandoislas.twitchunofficial.data.model.json.twitched.BatchRequest;
 import com.rolandoislas.twitchunofficial.data.model.json.twitched.LinkId;
 import com.rolandoislas.twitchunofficial.data.model.json.twitched.LinkToken;
 import com.rolandoislas.twitchunofficial.util.ApiCache;
 import com.rolandoislas.twitchunofficial.util.AuthUtil;
+import com.rolandoislas.twitchunofficial.util.BatchHandler;
 import com.rolandoislas.twitchunofficial.util.DatabaseUtil;
 import com.rolandoislas.twitchunofficial.util.HeaderUtil;
+import com.rolandoislas.twitchunofficial.util.JsonUtil;
 import com.rolandoislas.twitchunofficial.util.Logger;
+import com.rolandoislas.twitchunofficial.util.ResponseUtil;
 import com.rolandoislas.twitchunofficial.util.StringUtil;
 import com.rolandoislas.twitchunofficial.util.admin.TwitchedAdminServer;
-import org.apache.maven.artifact.versioning.ComparableVersion;
 import org.eclipse.jetty.http.HttpStatus;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import redis.clients.jedis.Jedis;
 import spark.Request;
 import spark.Response;
+import spark.Route;
 import spark.Spark;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Random;
 import java.util.UUID;
 import java.util.stream.Collectors;
@@ -58,7 +67,13 @@ import static com.rolandoislas.twitchunofficial.TwitchUnofficialApi.halt;
 public class TwitchedApi {
     private static final String OAUTH_CALLBACK_PATH = "/link/complete";
     private static final String STATIC_BUCKET_URL = "https://static.twitched.org/";
+    private static final String STREAM_QUALITY_VERSION_KEY = "streamquality_version";
+    private static final long STREAM_QUALITY_VERSION_CHECK_INTERVAL = 5000; // Milliseconds between version checks
     private static Random random = new Random();
+    private static final Object streamQualityIndexLock = new Object();
+    @Nullable private static volatile StreamQualityIndex streamQualityIndex;
+    private static volatile long streamQualityIndexCheckTime;
+    private static final Map<String, Route> BATCH_ROUTES = createBatchRoutes();
 
     /**
      * Generate a new ID for a device to begin linking
@@ -103,8 +118,7 @@ public class TwitchedApi {
      * @return version 1 (implicit) or 2 (authorization)
      */
     private static int getLinkIdVersionFromHeader(Request request) {
-        @NotNull ComparableVersion version = HeaderUtil.extractVersion(request);
-        return version.compareTo(new ComparableVersion("1.4")) >= 0 ? 2 : 1;
+        return HeaderUtil.extractProfile(request).getLinkIdVersion();
     }
 
     /**
@@ -419,6 +433,20 @@ public class TwitchedApi {
         return null;
     }
 
+    /**
+     * Return the metrics of the follows cacher queue
+     * @param request request
+     * @param response response
+     * @return json
+     */
+    @NotCached
+    static String getQueueStats(@SuppressWarnings("unused") Request request,
+                                @SuppressWarnings("unused") Response response) {
+        if (!isDevApiEnabled())
+            return null;
+        return gson.toJson(TwitchUnofficialApi.followIdsToCache.getStats());
+    }
+
     /**
      * Check if the dev api is enabled
      * @return enabled
@@ -631,14 +659,14 @@ public class TwitchedApi {
      * @param response response
      * @return json
      */
-    static String getTwitchedConfig(Request request, @SuppressWarnings("unused") Response response) {
+    static String getTwitchedConfig(Request request, Response response) {
         checkAuth(request);
         // Check cache
-        ComparableVersion version = HeaderUtil.extractVersion(request);
-        String cacheId = ApiCache.createKey("config", version.toString());
-        String cachedData = cache.get(cacheId);
+        ClientProfile profile = HeaderUtil.extractProfile(request);
+        String cacheId = ApiCache.createKey("config", profile.getId());
+        CachedResponse cachedData = ResponseUtil.getCached(cacheId);
         if (cachedData != null)
-            return cachedData;
+            return ResponseUtil.send(request, response, cachedData);
         // Load
         String configJson = System.getenv().getOrDefault("TWITCHED_CONFIG", "{}");
         JsonObject config;
@@ -661,15 +689,13 @@ public class TwitchedApi {
         }
         catch (JsonSyntaxException ignore) {}
         // 1.5 force remote HLS
-        if (version.compareTo(new ComparableVersion("1.6")) < 0) {
+        if (profile.shouldForceRemoteHls()) {
             if (config.has("force_remote_hls"))
                 config.remove("force_remote_hls");
             config.addProperty("force_remote_hls", true);
         }
         // Cache and return
-        String configString = config.toString();
-        cache.set(cacheId, configString);
-        return configString;
+        return ResponseUtil.cacheAndSend(request, response, cacheId, config.toString());
     }
 
     /**
@@ -694,11 +720,13 @@ public class TwitchedApi {
         TwitchedAdminServer.checkAuth(request, response, true);
         String qualitiesJson = request.body();
         try {
-            List<StreamQuality> streamQualities = gson.fromJson(qualitiesJson,
-                    new TypeToken<List<StreamQuality>>() {}.getType());
+            List<StreamQuality> streamQualities = gson.fromJson(qualitiesJson, JsonUtil.STREAM_QUALITY_LIST_TYPE);
             DatabaseUtil.setStreamQualities(streamQualities);
             String cacheId = ApiCache.createKey("streamquality");
             cache.remove(cacheId);
+            // Stamp a new version so every instance rebuilds its index
+            cache.increment(STREAM_QUALITY_VERSION_KEY);
+            streamQualityIndexCheckTime = 0;
         }
         catch (JsonSyntaxException e) {
             throw halt(HttpStatus.BAD_REQUEST_400, "");
@@ -716,7 +744,7 @@ public class TwitchedApi {
         String cachedData = cache.get(cacheId);
         if (cachedData != null) {
             try {
-                return gson.fromJson(cachedData, new TypeToken<List<StreamQuality>>(){}.getType());
+                return gson.fromJson(cachedData, JsonUtil.STREAM_QUALITY_LIST_TYPE);
             }
             catch (JsonSyntaxException ignore) {}
         }
@@ -730,6 +758,35 @@ public class TwitchedApi {
         return streamQualities;
     }
 
+    /**
+     * Get stream qualities indexed by model
+     * The index is rebuilt when the version stamp in Redis changes. The stamp is checked at most once every
+     * STREAM_QUALITY_VERSION_CHECK_INTERVAL milliseconds.
+     * @return stream quality index
+     */
+    @Cached
+    @NotNull
+    static StreamQualityIndex getStreamQualityIndex() {
+        StreamQualityIndex index = streamQualityIndex;
+        if (index != null &&
+                System.currentTimeMillis() - streamQualityIndexCheckTime < STREAM_QUALITY_VERSION_CHECK_INTERVAL)
+            return index;
+        synchronized (streamQualityIndexLock) {
+            index = streamQualityIndex;
+            if (index != null &&
+                    System.currentTimeMillis() - streamQualityIndexCheckTime < STREAM_QUALITY_VERSION_CHECK_INTERVAL)
+                return index;
+            long version = StringUtil.parseLong(cache.get(STREAM_QUALITY_VERSION_KEY));
+            if (index == null || index.getVersion() != version) {
+                Logger.debug("Loading stream quality index version %d", version);
+                index = new StreamQualityIndex(getStreamQualities(), version);
+                streamQualityIndex = index;
+            }
+            streamQualityIndexCheckTime = System.currentTimeMillis();
+            return index;
+        }
+    }
+
     /**
      * Get the Roku BIF url
      * @param request request
@@ -771,4 +828,52 @@ public class TwitchedApi {
         response.redirect(String.format("%sbif/%s/%s.bif", STATIC_BUCKET_URL, id, quality));
         return "";
     }
+
+    /**
+     * Create the routes that can be sent in a batch request
+     * Only json GET routes that do not redirect or stream are batched.
+     * @return routes mapped to their paths
+     */
+    private static Map<String, Route> createBatchRoutes() {
+        Map<String, Route> routes = new HashMap<>();
+        routes.put("/api/config", TwitchedApi::getTwitchedConfig);
+        routes.put("/api/qualities", TwitchedApi::getStreamQualitiesForModels);
+        routes.put("/api/communities/follows", TwitchedApi::getFollowedCommunities);
+        routes.put("/api/twitch/helix/streams", TwitchUnofficialApi::getStreamsHelix);
+        routes.put("/api/twitch/helix/games", TwitchUnofficialApi::getGamesHelix);
+        routes.put("/api/twitch/helix/games/top", TwitchUnofficialApi::getTopGamesHelix);
+        routes.put("/api/twitch/helix/users", TwitchUnofficialApi::getUsersHelix);
+        routes.put("/api/twitch/helix/users/follows", TwitchUnofficialApi::getUserFollowHelix);
+        routes.put("/api/twitch/helix/users/follows/streams", TwitchUnofficialApi::getUserFollowedStreamsHelix);
+        routes.put("/api/twitch/helix/videos", TwitchUnofficialApi::getVideosHelix);
+        routes.put("/api/twitch/games/follows", TwitchUnofficialApi::getFollowedGames);
+        return routes;
+    }
+
+    /**
+     * Run several api requests and return their responses together
+     * The body is a json array of objects with an id and a path with a query string.
+     * @param request request
+     * @param response response
+     * @return json array of responses in the order of the requests
+     */
+    static String postBatch(Request request, Response response) {
+        checkAuth(request);
+        BatchRequest[] batch;
+        try {
+            batch = gson.fromJson(request.body(), BatchRequest[].class);
+        }
+        catch (JsonSyntaxException e) {
+            throw halt(BAD_REQUEST, "Bad Request: invalid json");
+        }
+        if (batch == null || batch.length == 0)
+            throw halt(BAD_REQUEST, "Bad Request: no requests");
+        if (batch.length > BatchHandler.getMaxRequests())
+            throw halt(BAD_REQUEST, String.format("Bad Request: max of %d requests", BatchHandler.getMaxRequests()));
+        for (BatchRequest batchRequest : batch)
+            if (batchRequest == null || batchRequest.getPath() == null)
+                throw halt(BAD_REQUEST, "Bad Request: path is required");
+        String json = BatchHandler.handle(request, Arrays.asList(batch), BATCH_ROUTES);
+        return ResponseUtil.sendWithEtag(request, response, json);
+    }
 }
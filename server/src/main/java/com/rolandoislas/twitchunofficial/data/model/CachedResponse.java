@@ -0,0 +1,28 @@
+package com.rolandoislas.twitchunofficial.data.model;
+
+/**
+ * Compressed response body stored with the entity tag of its uncompressed body
+ */
+public class CachedResponse {
+    private final byte[] body;
+    private final String etag;
+
+    public CachedResponse(byte[] body, String etag) {
+        this.body = body;
+        this.etag = etag;
+    }
+
+    /**
+     * @return gzip bytes
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * @return entity tag without quotes
+     */
+    public String getEtag() {
+        return etag;
+    }
+}
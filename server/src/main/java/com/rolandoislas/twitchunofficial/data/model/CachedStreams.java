@@ -3,17 +3,34 @@ package com.rolandoislas.twitchunofficial.data.model;
 import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.Stream;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class CachedStreams {
     private List<String> missingIds;
     private List<String> missingLogins;
-    private List<Stream> streams;
+    private Map<String, Stream> onlineStreams;
+    private Map<String, Stream> offlineStreams;
 
     public CachedStreams() {
         missingIds = new ArrayList<>();
         missingLogins = new ArrayList<>();
-        streams = new ArrayList<>();
+        onlineStreams = new LinkedHashMap<>();
+        offlineStreams = new LinkedHashMap<>();
+    }
+
+    /**
+     * Add a cached stream
+     * @param id user id the stream was cached for
+     * @param stream stream
+     */
+    public void addStream(String id, Stream stream) {
+        if (stream.isOnline())
+            onlineStreams.put(id, stream);
+        else
+            offlineStreams.put(id, stream);
     }
 
     public List<String> getMissingIds() {
@@ -24,7 +41,31 @@ public class CachedStreams {
         return missingLogins;
     }
 
+    /**
+     * @return new list of the online streams in the order they were added
+     */
     public List<Stream> getStreams() {
-        return streams;
+        return new ArrayList<>(onlineStreams.values());
+    }
+
+    /**
+     * @return online streams mapped to user ids
+     */
+    public Map<String, Stream> getOnlineStreams() {
+        return onlineStreams;
+    }
+
+    /**
+     * @return user ids of online streams
+     */
+    public Set<String> getOnlineIds() {
+        return onlineStreams.keySet();
+    }
+
+    /**
+     * @return streams cached as offline mapped to user ids
+     */
+    public Map<String, Stream> getOfflineStreams() {
+        return offlineStreams;
     }
 }
@@ -0,0 +1,117 @@
+package com.rolandoislas.twitchunofficial.data.model;
+
+import org.apache.maven.artifact.versioning.ComparableVersion;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Response capabilities of a Twitched client version
+ * Versions with the same capabilities share one profile instance and id, so responses cached for one version are
+ * used for every version with the same output.
+ */
+public class ClientProfile {
+    private static final ComparableVersion VERSION_1_3 = new ComparableVersion("1.3");
+    private static final ComparableVersion VERSION_1_4 = new ComparableVersion("1.4");
+    private static final ComparableVersion VERSION_1_4_2400 = new ComparableVersion("1.4.2400");
+    private static final ComparableVersion VERSION_1_5 = new ComparableVersion("1.5");
+    private static final ComparableVersion VERSION_1_6 = new ComparableVersion("1.6");
+    private static final Map<String, ClientProfile> profiles = new ConcurrentHashMap<>();
+
+    private final String id;
+    private final boolean sendLogin;
+    private final boolean braceThumbnailTemplate;
+    private final boolean userFollowType;
+    private final boolean forceRemoteHls;
+    private final int linkIdVersion;
+
+    private ClientProfile(String id, boolean sendLogin, boolean braceThumbnailTemplate, boolean userFollowType,
+                          boolean forceRemoteHls, int linkIdVersion) {
+        this.id = id;
+        this.sendLogin = sendLogin;
+        this.braceThumbnailTemplate = braceThumbnailTemplate;
+        this.userFollowType = userFollowType;
+        this.forceRemoteHls = forceRemoteHls;
+        this.linkIdVersion = linkIdVersion;
+    }
+
+    /**
+     * Get the shared profile with the specified capabilities
+     */
+    private static ClientProfile create(boolean sendLogin, boolean braceThumbnailTemplate, boolean userFollowType,
+                                        boolean forceRemoteHls, int linkIdVersion) {
+        String id = String.format("%d%d%d%d%d", sendLogin ? 1 : 0, braceThumbnailTemplate ? 1 : 0,
+                userFollowType ? 1 : 0, forceRemoteHls ? 1 : 0, linkIdVersion);
+        return profiles.computeIfAbsent(id, key -> new ClientProfile(key, sendLogin, braceThumbnailTemplate,
+                userFollowType, forceRemoteHls, linkIdVersion));
+    }
+
+    /**
+     * Get the profile of a client version
+     * @param version client version
+     * @return profile
+     */
+    public static ClientProfile fromVersion(ComparableVersion version) {
+        return create(
+                version.compareTo(VERSION_1_4_2400) != 0,
+                version.compareTo(VERSION_1_5) >= 0,
+                version.compareTo(VERSION_1_3) >= 0,
+                version.compareTo(VERSION_1_6) < 0,
+                version.compareTo(VERSION_1_4) >= 0 ? 2 : 1
+        );
+    }
+
+    /**
+     * @return id that is equal for profiles with the same capabilities
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return should stream user logins be sent
+     */
+    public boolean shouldSendLogin() {
+        return sendLogin;
+    }
+
+    /**
+     * @return should video thumbnail urls use {width} instead of %{width}
+     */
+    public boolean usesBraceThumbnailTemplate() {
+        return braceThumbnailTemplate;
+    }
+
+    /**
+     * @return type of offline followed channel streams
+     */
+    public String getOfflineFollowType() {
+        return userFollowType ? "user_follow" : "user";
+    }
+
+    /**
+     * @return should the config force remote HLS
+     */
+    public boolean shouldForceRemoteHls() {
+        return forceRemoteHls;
+    }
+
+    /**
+     * @return version of link id to use - 1 (implicit) or 2 (authorization)
+     */
+    public int getLinkIdVersion() {
+        return linkIdVersion;
+    }
+
+    /**
+     * @return should an expired user token be redirected to the validate endpoint
+     */
+    public boolean shouldRedirectExpiredToken() {
+        return linkIdVersion < 2;
+    }
+
+    @Override
+    public String toString() {
+        return id;
+    }
+}
@@ -23,6 +23,11 @@ public class FollowQueue implements QueueItem {
         return type;
     }
 
+    @Override
+    public Priority getPriority() {
+        return Priority.HIGH;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj instanceof FollowQueue) {
@@ -34,6 +39,11 @@ public class FollowQueue implements QueueItem {
             return false;
     }
 
+    @Override
+    public int hashCode() {
+        return Objects.hash(userId, type);
+    }
+
     public enum FollowType {
         CHANNEL, GAME
     }
@@ -0,0 +1,33 @@
+package com.rolandoislas.twitchunofficial.data.model;
+
+import java.util.List;
+
+/**
+ * Followed user ids split by live status
+ */
+public class LiveFollows {
+    private final List<String> liveIds;
+    private final List<String> offlineIds;
+    private final List<String> unknownIds;
+
+    public LiveFollows(List<String> liveIds, List<String> offlineIds, List<String> unknownIds) {
+        this.liveIds = liveIds;
+        this.offlineIds = offlineIds;
+        this.unknownIds = unknownIds;
+    }
+
+    public List<String> getLiveIds() {
+        return liveIds;
+    }
+
+    public List<String> getOfflineIds() {
+        return offlineIds;
+    }
+
+    /**
+     * @return ids that have no cached stream status
+     */
+    public List<String> getUnknownIds() {
+        return unknownIds;
+    }
+}
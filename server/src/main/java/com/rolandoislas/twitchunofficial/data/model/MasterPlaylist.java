@@ -0,0 +1,95 @@
+package com.rolandoislas.twitchunofficial.data.model;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A parsed m3u8 master playlist along with any filtered variants that have been generated from it
+ */
+public class MasterPlaylist {
+    private final String raw;
+    private final List<String> headerLines;
+    private final List<Playlist> playlists;
+    private final long expires;
+    private final Map<String, String> variants;
+
+    /**
+     * Parse a raw master playlist
+     * @param raw raw m3u8 master playlist
+     * @param timeout milliseconds this parsed playlist is considered valid
+     */
+    public MasterPlaylist(@NotNull String raw, long timeout) {
+        this.raw = raw;
+        this.expires = System.currentTimeMillis() + timeout;
+        this.variants = new ConcurrentHashMap<>();
+        List<String> headerLines = new ArrayList<>();
+        List<Playlist> playlists = new ArrayList<>();
+        String[] playlistSplit = raw.split("\r?\n");
+        for (int lineIndex = 0; lineIndex < playlistSplit.length; lineIndex++) {
+            String line = playlistSplit[lineIndex];
+            // Not media line
+            if (!line.startsWith("#EXT-X-MEDIA")) {
+                headerLines.add(line);
+            }
+            // Media line
+            else {
+                // EOF - add line but do not force add others
+                if (lineIndex + 2 >= playlistSplit.length) {
+                    headerLines.add(line);
+                }
+                // Add line and two after it to playlists list
+                else {
+                    Playlist stream = new Playlist(line, playlistSplit[lineIndex + 1], playlistSplit[lineIndex + 2]);
+                    playlists.add(stream);
+                    lineIndex += 2;
+                }
+            }
+        }
+        this.headerLines = Collections.unmodifiableList(headerLines);
+        this.playlists = Collections.unmodifiableList(playlists);
+    }
+
+    public String getRaw() {
+        return raw;
+    }
+
+    /**
+     * @return non-media lines of the playlist
+     */
+    public List<String> getHeaderLines() {
+        return headerLines;
+    }
+
+    public List<Playlist> getPlaylists() {
+        return playlists;
+    }
+
+    public boolean isExpired() {
+        return System.currentTimeMillis() >= expires;
+    }
+
+    /**
+     * Get a previously generated variant
+     * @param key variant key
+     * @return variant playlist or null if it has not been generated
+     */
+    @Nullable
+    public String getVariant(String key) {
+        return variants.get(key);
+    }
+
+    /**
+     * Store a generated variant of this master playlist
+     * @param key variant key
+     * @param variant filtered playlist
+     */
+    public void putVariant(String key, String variant) {
+        variants.put(key, variant);
+    }
+}
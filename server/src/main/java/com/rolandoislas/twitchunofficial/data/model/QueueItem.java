@@ -1,4 +1,14 @@
 package com.rolandoislas.twitchunofficial.data.model;
 
 public interface QueueItem {
+    /**
+     * Get the priority of the item
+     * Higher priority items are always taken from the queue before lower priority items.
+     * @return priority
+     */
+    Priority getPriority();
+
+    enum Priority {
+        HIGH, LOW
+    }
 }
@@ -0,0 +1,92 @@
+package com.rolandoislas.twitchunofficial.data.model;
+
+/**
+ * Snapshot of work queue metrics
+ */
+public class QueueStats {
+    private final int capacity;
+    private final int depth;
+    private final int highDepth;
+    private final int lowDepth;
+    private final int inProgress;
+    private final long offered;
+    private final long duplicates;
+    private final long dropped;
+    private final long expired;
+    private final long taken;
+    private final long averageWait;
+    private final long maxWait;
+
+    public QueueStats(int capacity, int highDepth, int lowDepth, int inProgress, long offered, long duplicates,
+                      long dropped, long expired, long taken, long averageWait, long maxWait) {
+        this.capacity = capacity;
+        this.depth = highDepth + lowDepth;
+        this.highDepth = highDepth;
+        this.lowDepth = lowDepth;
+        this.inProgress = inProgress;
+        this.offered = offered;
+        this.duplicates = duplicates;
+        this.dropped = dropped;
+        this.expired = expired;
+        this.taken = taken;
+        this.averageWait = averageWait;
+        this.maxWait = maxWait;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getHighDepth() {
+        return highDepth;
+    }
+
+    public int getLowDepth() {
+        return lowDepth;
+    }
+
+    public int getInProgress() {
+        return inProgress;
+    }
+
+    public long getOffered() {
+        return offered;
+    }
+
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return amount of leases that expired before their item was completed
+     */
+    public long getExpired() {
+        return expired;
+    }
+
+    public long getTaken() {
+        return taken;
+    }
+
+    /**
+     * @return average milliseconds items waited in the queue before being taken
+     */
+    public long getAverageWait() {
+        return averageWait;
+    }
+
+    /**
+     * @return longest milliseconds an item waited in the queue before being taken
+     */
+    public long getMaxWait() {
+        return maxWait;
+    }
+}
@@ -1,8 +1,14 @@
 package com.rolandoislas.twitchunofficial.data.model;
 
+import com.google.gson.TypeAdapter;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.rolandoislas.twitchunofficial.util.JsonUtil;
 import com.rolandoislas.twitchunofficial.util.Logger;
 
+import java.io.IOException;
+
 public class StreamQuality {
     private long id;
     private String model = "";
@@ -179,4 +185,97 @@ public class StreamQuality {
     public void setId(long id) {
         this.id = id;
     }
+
+    /**
+     * Reads and writes stream quality json without reflection
+     */
+    public static class Adapter extends TypeAdapter<StreamQuality> {
+        @Override
+        public void write(JsonWriter out, StreamQuality streamQuality) throws IOException {
+            out.beginObject();
+            out.name("id").value(streamQuality.id);
+            out.name("model").value(streamQuality.model);
+            out.name("bitrate").value(streamQuality.bitrate);
+            out.name("comment").value(streamQuality.comment);
+            out.name("240p30").value(streamQuality._240p30);
+            out.name("240p60").value(streamQuality._240p60);
+            out.name("480p30").value(streamQuality._480p30);
+            out.name("480p60").value(streamQuality._480p60);
+            out.name("720p30").value(streamQuality._720p30);
+            out.name("720p60").value(streamQuality._720p60);
+            out.name("1080p30").value(streamQuality._1080p30);
+            out.name("1080p60").value(streamQuality._1080p60);
+            out.name("only_source_60").value(streamQuality.onlySource60);
+            out.endObject();
+        }
+
+        @Override
+        public StreamQuality read(JsonReader in) throws IOException {
+            // There is no no-args constructor, so fields missing from the json are left unset, not set to defaults
+            long id = 0;
+            String model = null;
+            int bitrate = 0;
+            String comment = null;
+            boolean _240p30 = false;
+            boolean _240p60 = false;
+            boolean _480p30 = false;
+            boolean _480p60 = false;
+            boolean _720p30 = false;
+            boolean _720p60 = false;
+            boolean _1080p30 = false;
+            boolean _1080p60 = false;
+            boolean onlySource60 = false;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id":
+                        id = JsonUtil.nextLong(in, id);
+                        break;
+                    case "model":
+                        model = JsonUtil.nextString(in);
+                        break;
+                    case "bitrate":
+                        bitrate = JsonUtil.nextInt(in, bitrate);
+                        break;
+                    case "comment":
+                        comment = JsonUtil.nextString(in);
+                        break;
+                    case "240p30":
+                        _240p30 = JsonUtil.nextBoolean(in, _240p30);
+                        break;
+                    case "240p60":
+                        _240p60 = JsonUtil.nextBoolean(in, _240p60);
+                        break;
+                    case "480p30":
+                        _480p30 = JsonUtil.nextBoolean(in, _480p30);
+                        break;
+                    case "480p60":
+                        _480p60 = JsonUtil.nextBoolean(in, _480p60);
+                        break;
+                    case "720p30":
+                        _720p30 = JsonUtil.nextBoolean(in, _720p30);
+                        break;
+                    case "720p60":
+                        _720p60 = JsonUtil.nextBoolean(in, _720p60);
+                        break;
+                    case "1080p30":
+                        _1080p30 = JsonUtil.nextBoolean(in, _1080p30);
+                        break;
+                    case "1080p60":
+                        _1080p60 = JsonUtil.nextBoolean(in, _1080p60);
+                        break;
+                    case "only_source_60":
+                        onlySource60 = JsonUtil.nextBoolean(in, onlySource60);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            StreamQuality streamQuality = new StreamQuality(model, bitrate, comment, _240p30, _240p60, _480p30,
+                    _480p60, _720p30, _720p60, _1080p30, _1080p60, onlySource60);
+            streamQuality.setId(id);
+            return streamQuality;
+        }
+    }
 }
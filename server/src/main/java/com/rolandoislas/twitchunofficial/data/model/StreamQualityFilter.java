@@ -0,0 +1,109 @@
+package com.rolandoislas.twitchunofficial.data.model;
+
+import com.rolandoislas.twitchunofficial.util.Logger;
+
+/**
+ * Immutable form of a StreamQuality with the allowed variants stored as a bitmask
+ * Each resolution class (240, 480, 720, 1080) has two bits: 30 FPS followed by 60 FPS.
+ */
+public class StreamQualityFilter {
+    private static final int MASK_60 = 0b10101010;
+    private static final int MASK_1080 = 0b11000000;
+    private static final int MASK_720 = 0b00110000;
+    private static final int MASK_480 = 0b00001100;
+    private static final int MASK_240 = 0b00000011;
+
+    private final String model;
+    private final int bitrate;
+    private final boolean onlySource60;
+    private final int mask;
+
+    private StreamQualityFilter(String model, int bitrate, boolean onlySource60, int mask) {
+        this.model = model;
+        this.bitrate = bitrate;
+        this.onlySource60 = onlySource60;
+        this.mask = mask;
+    }
+
+    public StreamQualityFilter(StreamQuality streamQuality) {
+        this(streamQuality.getModel(), streamQuality.getBitrate(), streamQuality.getOnlySource60(),
+                (streamQuality.get240p30() ? 1 : 0) |
+                (streamQuality.get240p60() ? 1 << 1 : 0) |
+                (streamQuality.get480p30() ? 1 << 2 : 0) |
+                (streamQuality.get480p60() ? 1 << 3 : 0) |
+                (streamQuality.get720p30() ? 1 << 4 : 0) |
+                (streamQuality.get720p60() ? 1 << 5 : 0) |
+                (streamQuality.get1080p30() ? 1 << 6 : 0) |
+                (streamQuality.get1080p60() ? 1 << 7 : 0));
+    }
+
+    /**
+     * Create a filter with 60 FPS variants disabled if the fps is under 60 and all variants higher than the quality
+     * limit disabled
+     * @see StreamQuality#disable60()
+     * @see StreamQuality#limitQuality(int)
+     * @param fps requested fps
+     * @param limit max quality
+     * @return limited filter
+     */
+    public StreamQualityFilter limit(int fps, int limit) {
+        int limitedMask = mask;
+        if (fps < 60)
+            limitedMask &= ~MASK_60;
+        if (limit < 1080)
+            limitedMask &= ~MASK_1080;
+        if (limit < 720)
+            limitedMask &= ~MASK_720;
+        if (limit < 480)
+            limitedMask &= ~MASK_480;
+        if (limit < 240) {
+            limitedMask &= ~MASK_240;
+            Logger.warn("Quality limited to less than 240p");
+        }
+        return new StreamQualityFilter(model, bitrate, onlySource60, limitedMask);
+    }
+
+    /**
+     * Get the bit for a playlist's resolution and fps
+     * @param stream playlist
+     * @return bit or 0 if the playlist is not restricted by resolution
+     */
+    private static int getVariantBit(Playlist stream) {
+        int fpsOffset;
+        if (stream.getFps() == 30)
+            fpsOffset = 0;
+        else if (stream.getFps() == 60)
+            fpsOffset = 1;
+        else
+            return 0;
+        int quality = stream.getQuality();
+        if (quality <= 240)
+            return 1 << fpsOffset;
+        if (quality <= 480)
+            return 1 << (2 + fpsOffset);
+        if (quality == 720)
+            return 1 << (4 + fpsOffset);
+        if (quality > 720)
+            return 1 << (6 + fpsOffset);
+        return 0;
+    }
+
+    /**
+     * Check if a playlist stream meets the defined quality
+     * @see StreamQuality#meetsQuality(Playlist)
+     * @param stream Stream playlist to check
+     * @return true if the stream meets the restrictions placed by this filter
+     */
+    public boolean meetsQuality(Playlist stream) {
+        if (stream.getFps() == 60 && onlySource60 && !stream.isSource())
+            return false;
+        if (stream.getBitrate() > bitrate)
+            return false;
+        int bit = getVariantBit(stream);
+        return bit == 0 || (mask & bit) != 0;
+    }
+
+    public String getModel() {
+        return model;
+    }
+}
@@ -0,0 +1,45 @@
+package com.rolandoislas.twitchunofficial.data.model;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of stream qualities indexed by model
+ */
+public class StreamQualityIndex {
+    private final Map<String, StreamQualityFilter> filters;
+    private final long version;
+
+    /**
+     * Index stream qualities by model
+     * Invalid qualities are skipped. If a model is listed more than once, the first entry is used.
+     * @param streamQualities qualities to index
+     * @param version version stamp the qualities were loaded at
+     */
+    public StreamQualityIndex(List<StreamQuality> streamQualities, long version) {
+        Map<String, StreamQualityFilter> filters = new HashMap<>();
+        for (StreamQuality streamQuality : streamQualities)
+            if (streamQuality.validate())
+                filters.putIfAbsent(streamQuality.getModel(), new StreamQualityFilter(streamQuality));
+        this.filters = Collections.unmodifiableMap(filters);
+        this.version = version;
+    }
+
+    /**
+     * Get the filter for a model
+     * @param model roku model
+     * @return filter or null if the model has no defined quality
+     */
+    @Nullable
+    public StreamQualityFilter get(String model) {
+        return filters.get(model);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
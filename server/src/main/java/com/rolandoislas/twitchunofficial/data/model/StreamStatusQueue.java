@@ -1,5 +1,7 @@
 package com.rolandoislas.twitchunofficial.data.model;
 
+import java.util.Objects;
+
 public class StreamStatusQueue implements QueueItem {
     private final String userIdentifier;
     private final Type type;
@@ -17,6 +19,27 @@ public class StreamStatusQueue implements QueueItem {
         this.type = type;
     }
 
+    @Override
+    public Priority getPriority() {
+        return Priority.LOW;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof StreamStatusQueue) {
+            StreamStatusQueue compare = (StreamStatusQueue) obj;
+            return Objects.equals(compare.getUserIdentifier(), getUserIdentifier()) &&
+                    Objects.equals(compare.getType(), getType());
+        }
+        else
+            return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(userIdentifier, type);
+    }
+
     public enum Type {
         ID, LOGIN
     }
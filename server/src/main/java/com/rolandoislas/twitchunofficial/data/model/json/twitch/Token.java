@@ -5,7 +5,16 @@
 
 package com.rolandoislas.twitchunofficial.data.model.json.twitch;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.rolandoislas.twitchunofficial.util.JsonUtil;
+
+import java.io.IOException;
 
 /**
  * Structure for a channel token returned for HLS data
@@ -24,5 +33,63 @@ public class Token {
         return sig;
     }
 
+    /**
+     * Get the expire time embedded in the signed token payload
+     * @return expire time in seconds since the epoch or 0 if it could not be determined
+     */
+    public long getExpires() {
+        if (token == null)
+            return 0;
+        try {
+            JsonElement payload = new JsonParser().parse(token);
+            if (!payload.isJsonObject())
+                return 0;
+            JsonElement expires = payload.getAsJsonObject().get("expires");
+            if (expires == null || !expires.isJsonPrimitive())
+                return 0;
+            return expires.getAsLong();
+        }
+        catch (JsonParseException | NumberFormatException e) {
+            return 0;
+        }
+    }
+
     public enum TYPE {VOD, CHANNEL}
+
+    /**
+     * Reads and writes token json without reflection
+     */
+    public static class Adapter extends TypeAdapter<Token> {
+        @Override
+        public void write(JsonWriter out, Token token) throws IOException {
+            out.beginObject();
+            out.name("token").value(token.token);
+            out.name("sig").value(token.sig);
+            out.name("mobile_restricted").value(token.mobileRestricted);
+            out.endObject();
+        }
+
+        @Override
+        public Token read(JsonReader in) throws IOException {
+            Token token = new Token();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "token":
+                        token.token = JsonUtil.nextString(in);
+                        break;
+                    case "sig":
+                        token.sig = JsonUtil.nextString(in);
+                        break;
+                    case "mobile_restricted":
+                        token.mobileRestricted = JsonUtil.nextBoolean(in, token.mobileRestricted);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return token;
+        }
+    }
 }
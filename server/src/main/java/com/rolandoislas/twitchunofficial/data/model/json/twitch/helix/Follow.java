@@ -33,4 +33,8 @@ public class Follow {
     public String getFollowedAt() {
         return followedAt;
     }
+
+    public void setFollowedAt(String followedAt) {
+        this.followedAt = followedAt;
+    }
 }
@@ -5,9 +5,15 @@
 
 package com.rolandoislas.twitchunofficial.data.model.json.twitch.helix;
 
+import com.google.gson.TypeAdapter;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.rolandoislas.twitchunofficial.util.JsonUtil;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+
 public class Game {
     private String id;
     private String name;
@@ -53,4 +59,45 @@ public class Game {
     public void setBoxArtUrl(String boxArtUrl) {
         this.boxArtUrl = boxArtUrl;
     }
+
+    /**
+     * Reads and writes game json without reflection
+     */
+    public static class Adapter extends TypeAdapter<Game> {
+        @Override
+        public void write(JsonWriter out, Game game) throws IOException {
+            out.beginObject();
+            out.name("id").value(game.id);
+            out.name("name").value(game.name);
+            out.name("box_art_url").value(game.boxArtUrl);
+            out.name("viewers").value(game.viewers);
+            out.endObject();
+        }
+
+        @Override
+        public Game read(JsonReader in) throws IOException {
+            Game game = new Game();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id":
+                        game.id = JsonUtil.nextString(in);
+                        break;
+                    case "name":
+                        game.name = JsonUtil.nextString(in);
+                        break;
+                    case "box_art_url":
+                        game.boxArtUrl = JsonUtil.nextString(in);
+                        break;
+                    case "viewers":
+                        game.viewers = JsonUtil.nextLong(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return game;
+        }
+    }
 }
@@ -12,8 +12,13 @@ import java.util.List;
 public class GameList {
     @SerializedName("data")
     private List<Game> games;
+    private Pagination pagination;
 
     public List<Game> getGames() {
         return games;
     }
+
+    public Pagination getPagination() {
+        return pagination;
+    }
 }
@@ -5,8 +5,14 @@
 
 package com.rolandoislas.twitchunofficial.data.model.json.twitch.helix;
 
+import com.google.gson.TypeAdapter;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.rolandoislas.twitchunofficial.util.JsonUtil;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -104,6 +110,10 @@ public class Stream {
         this.language = language;
     }
 
+    public String getLanguage() {
+        return language;
+    }
+
     public void setThumbnailUrl(String thumbnailUrl) {
         this.thumbnailUrl = thumbnailUrl;
     }
@@ -159,4 +169,129 @@ public class Stream {
     public long getDurationSeconds() {
         return durationSeconds;
     }
+
+    /**
+     * Reads and writes stream json without reflection
+     */
+    public static class Adapter extends TypeAdapter<Stream> {
+        private final UserName.Adapter userNameAdapter = new UserName.Adapter();
+
+        @Override
+        public void write(JsonWriter out, Stream stream) throws IOException {
+            out.beginObject();
+            out.name("id").value(stream.id);
+            out.name("user_id").value(stream.userId);
+            out.name("game_id").value(stream.gameId);
+            out.name("community_id");
+            JsonUtil.writeStringList(out, stream.communityIds);
+            out.name("type").value(stream.type);
+            out.name("title").value(stream.title);
+            out.name("viewer_count").value(stream.viewerCount);
+            out.name("started_at").value(stream.startedAt);
+            out.name("language").value(stream.language);
+            out.name("thumbnail_url").value(stream.thumbnailUrl);
+            out.name("description").value(stream.description);
+            out.name("created_at").value(stream.createdAt);
+            out.name("published_at").value(stream.publishedAt);
+            out.name("url").value(stream.url);
+            out.name("viewable").value(stream.viewable);
+            out.name("view_count").value(stream.viewCount);
+            out.name("duration").value(stream.duration);
+            out.name("user_name");
+            if (stream.userName == null)
+                out.nullValue();
+            else
+                userNameAdapter.write(out, stream.userName);
+            out.name("game_name").value(stream.gameName);
+            out.name("duration_seconds").value(stream.durationSeconds);
+            out.name("online").value(stream.online);
+            out.name("encrypted").value(stream.encrypted);
+            out.endObject();
+        }
+
+        @Override
+        public Stream read(JsonReader in) throws IOException {
+            Stream stream = new Stream();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id":
+                        stream.id = JsonUtil.nextString(in);
+                        break;
+                    case "user_id":
+                        stream.userId = JsonUtil.nextString(in);
+                        break;
+                    case "game_id":
+                        stream.gameId = JsonUtil.nextString(in);
+                        break;
+                    case "community_id":
+                        stream.communityIds = JsonUtil.nextStringList(in);
+                        break;
+                    case "type":
+                        stream.type = JsonUtil.nextString(in);
+                        break;
+                    case "title":
+                        stream.title = JsonUtil.nextString(in);
+                        break;
+                    case "viewer_count":
+                        stream.viewerCount = JsonUtil.nextLong(in, stream.viewerCount);
+                        break;
+                    case "started_at":
+                        stream.startedAt = JsonUtil.nextString(in);
+                        break;
+                    case "language":
+                        stream.language = JsonUtil.nextString(in);
+                        break;
+                    case "thumbnail_url":
+                        stream.thumbnailUrl = JsonUtil.nextString(in);
+                        break;
+                    case "description":
+                        stream.description = JsonUtil.nextString(in);
+                        break;
+                    case "created_at":
+                        stream.createdAt = JsonUtil.nextString(in);
+                        break;
+                    case "published_at":
+                        stream.publishedAt = JsonUtil.nextString(in);
+                        break;
+                    case "url":
+                        stream.url = JsonUtil.nextString(in);
+                        break;
+                    case "viewable":
+                        stream.viewable = JsonUtil.nextString(in);
+                        break;
+                    case "view_count":
+                        stream.viewCount = JsonUtil.nextLong(in, stream.viewCount);
+                        break;
+                    case "duration":
+                        stream.duration = JsonUtil.nextString(in);
+                        break;
+                    case "user_name":
+                        if (in.peek() == JsonToken.NULL) {
+                            in.nextNull();
+                            stream.userName = null;
+                        }
+                        else
+                            stream.userName = userNameAdapter.read(in);
+                        break;
+                    case "game_name":
+                        stream.gameName = JsonUtil.nextString(in);
+                        break;
+                    case "duration_seconds":
+                        stream.durationSeconds = JsonUtil.nextLong(in, stream.durationSeconds);
+                        break;
+                    case "online":
+                        stream.online = JsonUtil.nextBoolean(in, stream.online);
+                        break;
+                    case "encrypted":
+                        stream.encrypted = JsonUtil.nextBoolean(in, stream.encrypted);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return stream;
+        }
+    }
 }
@@ -1,6 +1,13 @@
 package com.rolandoislas.twitchunofficial.data.model.json.twitch.helix;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
 
 public class StreamUtil {
     /**
@@ -29,4 +36,81 @@ public class StreamUtil {
                 return true;
         return false;
     }
+
+    /**
+     * Get the user ids of a list of streams
+     * Used to check many ids against the same list instead of calling streamListContainsId for each.
+     * @param streams list of streams
+     * @return user ids
+     */
+    public static Set<String> getUserIds(List<Stream> streams) {
+        Set<String> ids = new HashSet<>();
+        for (Stream stream : streams)
+            if (stream != null && stream.getUserId() != null)
+                ids.add(stream.getUserId());
+        return ids;
+    }
+
+    /**
+     * Get the user logins of a list of streams
+     * Used to check many logins against the same list instead of calling streamListContainsLogin for each.
+     * @param streams list of streams
+     * @return user logins
+     */
+    public static Set<String> getUserLogins(List<Stream> streams) {
+        Set<String> logins = new HashSet<>();
+        for (Stream stream : streams)
+            if (stream != null && stream.getUserName() != null && stream.getUserName().getLogin() != null)
+                logins.add(stream.getUserName().getLogin());
+        return logins;
+    }
+
+    /**
+     * Add the followed channels of a page that are not live to the offline follows
+     * A channel is only added once, even if it is on more than one page.
+     * @param followsOffline offline follows to add to
+     * @param followIdsOffline followed ids of the offline follows - added ids are added to it
+     * @param followIds followed ids of the page
+     * @param follows follows of the page mapped to their followed ids
+     * @param streams live streams of the page
+     */
+    public static void addOfflineFollows(List<Follow> followsOffline, Set<String> followIdsOffline,
+                                         List<String> followIds, Map<String, Follow> follows, List<Stream> streams) {
+        Set<String> liveIds = getUserIds(streams);
+        for (String followId : followIds)
+            if (!liveIds.contains(followId) && follows.containsKey(followId) && followIdsOffline.add(followId))
+                followsOffline.add(follows.get(followId));
+    }
+
+    /**
+     * Get the greatest streams of a list in descending order
+     * Equal streams keep their order in the list, as with a stable sort of the whole list.
+     * @param streams list of streams
+     * @param comparator stream order
+     * @param limit max amount of streams to return
+     * @return up to limit streams
+     */
+    public static List<Stream> getTopStreams(List<Stream> streams, Comparator<Stream> comparator, int limit) {
+        if (limit <= 0)
+            return new ArrayList<>();
+        // Min heap of list indices. Later indices are smaller on ties so they are removed first.
+        PriorityQueue<Integer> heap = new PriorityQueue<>(Math.min(limit, streams.size()) + 1, (a, b) -> {
+            int compare = comparator.compare(streams.get(a), streams.get(b));
+            return compare != 0 ? compare : Integer.compare(b, a);
+        });
+        for (int index = 0; index < streams.size(); index++) {
+            if (heap.size() < limit)
+                heap.add(index);
+            // A later stream replaces the smallest only if it is greater
+            else if (comparator.compare(streams.get(index), streams.get(heap.peek())) > 0) {
+                heap.poll();
+                heap.add(index);
+            }
+        }
+        List<Stream> topStreams = new ArrayList<>(heap.size());
+        while (!heap.isEmpty())
+            topStreams.add(streams.get(heap.poll()));
+        Collections.reverse(topStreams);
+        return topStreams;
+    }
 }
@@ -5,7 +5,13 @@
 
 package com.rolandoislas.twitchunofficial.data.model.json.twitch.helix;
 
+import com.google.gson.TypeAdapter;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.rolandoislas.twitchunofficial.util.JsonUtil;
+
+import java.io.IOException;
 
 public class User {
     private String id;
@@ -114,4 +120,73 @@ public class User {
     public boolean verifyData() {
         return getId() != null && !getId().isEmpty() && getLogin() != null && !getLogin().isEmpty();
     }
+
+    /**
+     * Reads and writes user json without reflection
+     */
+    public static class Adapter extends TypeAdapter<User> {
+        @Override
+        public void write(JsonWriter out, User user) throws IOException {
+            out.beginObject();
+            out.name("id").value(user.id);
+            out.name("login").value(user.login);
+            out.name("display_name").value(user.displayName);
+            out.name("type").value(user.type);
+            out.name("broadcaster_type").value(user.broadcasterType);
+            out.name("description").value(user.description);
+            out.name("profile_image_url").value(user.profileImageUrl);
+            out.name("offline_image_url").value(user.offlineImageUrl);
+            out.name("view_count").value(user.viewCount);
+            out.name("email").value(user.email);
+            out.name("exists").value(user.exists);
+            out.endObject();
+        }
+
+        @Override
+        public User read(JsonReader in) throws IOException {
+            User user = new User();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id":
+                        user.id = JsonUtil.nextString(in);
+                        break;
+                    case "login":
+                        user.login = JsonUtil.nextString(in);
+                        break;
+                    case "display_name":
+                        user.displayName = JsonUtil.nextString(in);
+                        break;
+                    case "type":
+                        user.type = JsonUtil.nextString(in);
+                        break;
+                    case "broadcaster_type":
+                        user.broadcasterType = JsonUtil.nextString(in);
+                        break;
+                    case "description":
+                        user.description = JsonUtil.nextString(in);
+                        break;
+                    case "profile_image_url":
+                        user.profileImageUrl = JsonUtil.nextString(in);
+                        break;
+                    case "offline_image_url":
+                        user.offlineImageUrl = JsonUtil.nextString(in);
+                        break;
+                    case "view_count":
+                        user.viewCount = JsonUtil.nextLong(in, user.viewCount);
+                        break;
+                    case "email":
+                        user.email = JsonUtil.nextString(in);
+                        break;
+                    case "exists":
+                        user.exists = JsonUtil.nextBoolean(in, user.exists);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return user;
+        }
+    }
 }
@@ -5,7 +5,13 @@
 
 package com.rolandoislas.twitchunofficial.data.model.json.twitch.helix;
 
+import com.google.gson.TypeAdapter;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.rolandoislas.twitchunofficial.util.JsonUtil;
+
+import java.io.IOException;
 
 public class UserName {
     private String login;
@@ -28,4 +34,41 @@ public class UserName {
     public void setLogin(String login) {
         this.login = login;
     }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * Reads and writes user name json without reflection
+     */
+    public static class Adapter extends TypeAdapter<UserName> {
+        @Override
+        public void write(JsonWriter out, UserName userName) throws IOException {
+            out.beginObject();
+            out.name("login").value(userName.login);
+            out.name("display_name").value(userName.displayName);
+            out.endObject();
+        }
+
+        @Override
+        public UserName read(JsonReader in) throws IOException {
+            UserName userName = new UserName();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "login":
+                        userName.login = JsonUtil.nextString(in);
+                        break;
+                    case "display_name":
+                        userName.displayName = JsonUtil.nextString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return userName;
+        }
+    }
 }
@@ -0,0 +1,23 @@
+package com.rolandoislas.twitchunofficial.data.model.json.twitched;
+
+/**
+ * Structure for a sub-request of a batch request
+ */
+public class BatchRequest {
+    private String id;
+    private String path;
+
+    /**
+     * @return client id of the request that is returned with its response
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return api path with an optional query string
+     */
+    public String getPath() {
+        return path;
+    }
+}
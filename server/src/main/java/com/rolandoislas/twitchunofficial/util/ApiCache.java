@@ -6,19 +6,24 @@
 package com.rolandoislas.twitchunofficial.util;
 
 import com.google.gson.Gson;
-import com.google.gson.JsonSyntaxException;
 import com.heroku.sdk.EnvKeyStore;
+import com.rolandoislas.twitchunofficial.data.model.CachedResponse;
 import com.rolandoislas.twitchunofficial.data.model.CachedStreams;
 import com.rolandoislas.twitchunofficial.data.model.FollowQueue;
 import com.rolandoislas.twitchunofficial.data.model.Id;
+import com.rolandoislas.twitchunofficial.data.model.LiveFollows;
 import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.Stream;
-import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.StreamUtil;
+import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.UserName;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
 import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.ZParams;
 import redis.clients.util.JedisURIHelper;
 
 import javax.net.ssl.SSLContext;
@@ -28,13 +33,17 @@ import javax.net.ssl.TrustManagerFactory;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyManagementException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.cert.CertificateException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -44,23 +53,46 @@ public class ApiCache {
     public static final int TIMEOUT_HOUR = 60 * 60;
     public static final int TIMEOUT_DAY = 24 * 60 * 60; // 1 Day
     public static final int TIMEOUT_WEEK = TIMEOUT_DAY * 7; // week
-    @SuppressWarnings("unused")
-    private static final String USER_NAME_FIELD_PREFIX = "_u_";
-    @SuppressWarnings("unused")
-    private static final String GAME_NAME_FIELD_PREFIX = "_g_";
+    public static final String USER_NAME_FIELD_PREFIX = "_u_";
+    public static final String GAME_NAME_FIELD_PREFIX = "_g_";
     public static final String LINK_PREFIX = "_l_";
     public static final String TOKEN_PREFIX = "_t_";
     private static final String FOLLOW_PREFIX = "_f_";
     private static final String FOLLOW_TIME_PREFIX = "_ft_";
-    private static final String STREAM_PREFIX = "_s_";
+    private static final String FOLLOW_NEWEST_PREFIX = "_fn_";
+    private static final String FOLLOW_SWEEP_PREFIX = "_fs_";
+    private static final String FOLLOW_FOLLOWED_AT_PREFIX = "_ffa_";
+    public static final String STREAM_PREFIX = "_s_";
+    private static final String STREAM_FRAGMENT_PREFIX = "_sf_";
+    private static final String COMPRESSED_PREFIX = "_gz_";
+    private static final String ETAG_PREFIX = "_et_";
+    private static final String LIVE_KEY = "_live_";
+    private static final String LIVE_SEEN_KEY = "_live_seen_";
+    private static final String OFFLINE_KEY = "_offline_";
+    private static final String OFFLINE_SEEN_KEY = "_offline_seen_";
+    private static final long LIVE_PRUNE_INTERVAL = TIMEOUT * 1000;
+    private static final String LIVE_INDEX_PREFIX = "_lv_";
+    private static final String LIVE_INDEX_TEMP_PREFIX = "_lvt_";
+    private static final String LIVE_INDEX_QUERY_PREFIX = "_lvq_";
+    private static final String LIVE_INDEX_KEYS = "_lv_keys";
+    private static final String LIVE_INDEX_META = "_lv_meta";
+    private static final String LIVE_INDEX_ALL = "all";
+    private static final String EXPIRE_IF_EQUALS_SCRIPT =
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then\n" +
+            "  return redis.call('PEXPIRE', KEYS[1], ARGV[2])\n" +
+            "end\n" +
+            "return 0";
+    private static final String TOP_SNAPSHOT_PREFIX = "_ts_";
+    private static final String TOP_SNAPSHOT_VERSION = "_ts_version";
     private static final String TOKEN_ID_PREFIX = "_ti_";
-    private static final String USER_ID_PREFIX = "_ui_";
+    public static final String USER_ID_PREFIX = "_ui_";
     private static final String FOLLOW_GAME_PREFIX = "_fg_";
     private static final String FOLLOW_TIME_GAME_PREFIX = "_ftg_";
     public static final String BIF_PREFIX = "_b_";
     private final String redisPassword;
     private final Gson gson;
     private JedisPool redisPool;
+    private long lastLivePruneTime;
 
     public ApiCache(String redisServer) {
         String connectionLimit = System.getenv("REDIS_CONNECTIONS");
@@ -101,7 +133,7 @@ public class ApiCache {
             redisPool = new JedisPool();
             redisPassword = "";
         }
-        gson = new Gson();
+        gson = JsonUtil.getGson();
     }
 
     /**
@@ -138,6 +170,20 @@ public class ApiCache {
         return value;
     }
 
+    /**
+     * Check if a key exists in redis
+     * @param key key to check
+     * @return true if the key exists - false if it does not or the check failed
+     */
+    public boolean exists(String key) {
+        try (Jedis redis = getAuthenticatedJedis()) {
+            return redis.exists(key);
+        } catch (Exception e) {
+            Logger.exception(e);
+        }
+        return false;
+    }
+
     public Jedis getAuthenticatedJedis() {
         Jedis jedis = redisPool.getResource();
         if (!redisPassword.isEmpty())
@@ -176,6 +222,42 @@ public class ApiCache {
         }
     }
 
+    /**
+     * Set a compressed response with the default cache timeout
+     * The body and entity tag are written in one transaction, so a reader never gets the entity tag of another body.
+     * @param key key to set - stored with a prefix separating it from string values
+     * @param response compressed response and its entity tag
+     */
+    public void setCompressed(String key, CachedResponse response) {
+        try (Jedis redis = getAuthenticatedJedis()) {
+            Transaction transaction = redis.multi();
+            transaction.setex((COMPRESSED_PREFIX + key).getBytes(StandardCharsets.UTF_8), TIMEOUT, response.getBody());
+            transaction.setex(ETAG_PREFIX + key, TIMEOUT, response.getEtag());
+            transaction.exec();
+        } catch (Exception e) {
+            Logger.exception(e);
+        }
+    }
+
+    /**
+     * Get a compressed response
+     * @param key key to get
+     * @return compressed response or null if not cached
+     */
+    @Nullable
+    public CachedResponse getCompressed(String key) {
+        try (Jedis redis = getAuthenticatedJedis()) {
+            List<byte[]> values = redis.mget((COMPRESSED_PREFIX + key).getBytes(StandardCharsets.UTF_8),
+                    (ETAG_PREFIX + key).getBytes(StandardCharsets.UTF_8));
+            if (values.size() != 2 || values.get(0) == null || values.get(1) == null)
+                return null;
+            return new CachedResponse(values.get(0), new String(values.get(1), StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            Logger.exception(e);
+        }
+        return null;
+    }
+
     /**
      * Set a key with the default cache timeout
      * @see #set(String, String, int)
@@ -184,6 +266,22 @@ public class ApiCache {
         set(key, value, TIMEOUT);
     }
 
+    /**
+     * Increment a numeric key
+     * @param key key to increment
+     * @return value after the increment or 0 on failure
+     */
+    @SuppressWarnings("UnusedReturnValue")
+    public long increment(String key) {
+        long value = 0;
+        try (Jedis redis = getAuthenticatedJedis()) {
+            value = redis.incr(key);
+        } catch (Exception e) {
+            Logger.exception(e);
+        }
+        return value;
+    }
+
     /**
      * Get user names from Redis.
      * Any user names that do not exist will be requested in a bulk request from twitch
@@ -212,6 +310,23 @@ public class ApiCache {
         return getNamesForIds(ids, Id.GAME);
     }
 
+    /**
+     * Fetch the keys of a batch that have not been fetched with one request
+     * @param batch batch to fetch and store the values in
+     */
+    public void mget(CacheBatch batch) {
+        List<String> keys = batch.getMissingKeys();
+        if (keys.isEmpty())
+            return;
+        List<String> values = null;
+        try (Jedis redis = getAuthenticatedJedis()) {
+            values = redis.mget(keys.toArray(new String[0]));
+        } catch (Exception e) {
+            Logger.exception(e);
+        }
+        batch.setValues(keys, values);
+    }
+
     /**
      * Get game or id names from Redis.
      * Any names that do not exist will be requested in a bulk request from twitch
@@ -298,15 +413,16 @@ public class ApiCache {
             default:
                 throw new IllegalArgumentException("Type must be GAME or USER");
         }
+        if (jsonMap.isEmpty())
+            return;
         try (Jedis redis = getAuthenticatedJedis()) {
+            Pipeline pipeline = redis.pipelined();
             for (Map.Entry<String, String> idJson : jsonMap.entrySet()) {
                 if (idJson.getKey() == null || idJson.getValue() == null)
                     continue;
-                String key = keyPrefix + idJson.getKey();
-                long result = redis.setnx(key, idJson.getValue());
-                if (result == 1)
-                    redis.expire(key, keyTimeout);
+                pipeline.set(keyPrefix + idJson.getKey(), idJson.getValue(), "NX", "EX", keyTimeout);
             }
+            pipeline.sync();
         } catch (Exception e) {
             Logger.exception(e);
         }
@@ -390,6 +506,122 @@ public class ApiCache {
         setFollowInSet(fromId, toIds, FOLLOW_PREFIX, FollowQueue.FollowType.CHANNEL);
     }
 
+    /**
+     * Replace the follows for a user id after a full sweep of the follow list
+     * @param fromId user to set follows for
+     * @param toIds id the user follows
+     * @param followedAt followed_at of the follows mapped to the followed ids
+     * @param newestFollowedAt followed_at of the newest follow or null if the user follows nobody
+     * @param sweepInterval milliseconds between full sweeps
+     */
+    void setFollows(String fromId, List<String> toIds, Map<String, String> followedAt,
+                    @Nullable String newestFollowedAt, long sweepInterval) {
+        setFollows(fromId, toIds);
+        setFollowSyncState(fromId, followedAt, newestFollowedAt, sweepInterval);
+    }
+
+    /**
+     * Add new follows for a user id found by an incremental refresh
+     * @param fromId user to add follows for
+     * @param toIds new ids the user follows
+     * @param followedAt followed_at of the new follows mapped to the followed ids
+     * @param newestFollowedAt followed_at of the newest follow
+     */
+    void addFollows(String fromId, List<String> toIds, Map<String, String> followedAt,
+                    @Nullable String newestFollowedAt) {
+        setFollowInSet(fromId, toIds, FOLLOW_PREFIX, FollowQueue.FollowType.CHANNEL);
+        setFollowSyncState(fromId, followedAt, newestFollowedAt, 0);
+    }
+
+    /**
+     * Store the followed_at of follows, the newest followed_at seen for a user, and the time of the last full sweep
+     * The followed_at values live as long as the follows set and are replaced by a full sweep. The sweep time lives
+     * until the next sweep is due, so it outlasts a follows set that is kept by incremental refreshes.
+     * @param fromId user id
+     * @param followedAt followed_at of the follows mapped to the followed ids
+     * @param newestFollowedAt followed_at of the newest follow or null to leave it unchanged
+     * @param sweepInterval milliseconds between full sweeps if the follows were set by a full sweep - 0 otherwise
+     */
+    private void setFollowSyncState(String fromId, Map<String, String> followedAt, @Nullable String newestFollowedAt,
+                                    long sweepInterval) {
+        try (Jedis redis = getAuthenticatedJedis()) {
+            Pipeline pipeline = redis.pipelined();
+            if (sweepInterval > 0)
+                pipeline.del(FOLLOW_FOLLOWED_AT_PREFIX + fromId);
+            if (!followedAt.isEmpty())
+                pipeline.hmset(FOLLOW_FOLLOWED_AT_PREFIX + fromId, followedAt);
+            pipeline.expire(FOLLOW_FOLLOWED_AT_PREFIX + fromId, TIMEOUT_DAY);
+            if (newestFollowedAt != null)
+                pipeline.setex(FOLLOW_NEWEST_PREFIX + fromId, TIMEOUT_DAY, newestFollowedAt);
+            else
+                pipeline.expire(FOLLOW_NEWEST_PREFIX + fromId, TIMEOUT_DAY);
+            if (sweepInterval > 0)
+                pipeline.setex(FOLLOW_SWEEP_PREFIX + fromId, (int) Math.max(sweepInterval / 1000, TIMEOUT_DAY),
+                        String.valueOf(System.currentTimeMillis()));
+            pipeline.sync();
+        } catch (Exception e) {
+            Logger.exception(e);
+        }
+    }
+
+    /**
+     * Get the followed_at of cached follows
+     * @param fromId user id
+     * @param toIds followed ids
+     * @return followed_at mapped to the followed ids - ids without a stored followed_at are not present
+     */
+    public Map<String, String> getFollowedAt(String fromId, List<String> toIds) {
+        Map<String, String> followedAt = new HashMap<>();
+        if (toIds.isEmpty())
+            return followedAt;
+        try (Jedis redis = getAuthenticatedJedis()) {
+            List<String> values = redis.hmget(FOLLOW_FOLLOWED_AT_PREFIX + fromId, toIds.toArray(new String[0]));
+            for (int idIndex = 0; idIndex < toIds.size() && idIndex < values.size(); idIndex++)
+                if (values.get(idIndex) != null)
+                    followedAt.put(toIds.get(idIndex), values.get(idIndex));
+        } catch (Exception e) {
+            Logger.exception(e);
+        }
+        return followedAt;
+    }
+
+    /**
+     * Get the newest followed_at stored for a user if the stored follows can be refreshed incrementally
+     * @param fromId user id
+     * @param sweepInterval max milliseconds since the last full sweep
+     * @return followed_at or null if a full sweep is needed
+     */
+    @Nullable
+    String getNewestFollowedAt(String fromId, long sweepInterval) {
+        try (Jedis redis = getAuthenticatedJedis()) {
+            Pipeline pipeline = redis.pipelined();
+            Response<Boolean> followsExist = pipeline.exists(FOLLOW_PREFIX + fromId);
+            Response<String> newestFollowedAt = pipeline.get(FOLLOW_NEWEST_PREFIX + fromId);
+            Response<String> sweepTime = pipeline.get(FOLLOW_SWEEP_PREFIX + fromId);
+            pipeline.sync();
+            if (!followsExist.get() ||
+                    System.currentTimeMillis() - StringUtil.parseLong(sweepTime.get()) > sweepInterval)
+                return null;
+            return newestFollowedAt.get();
+        } catch (Exception e) {
+            Logger.exception(e);
+        }
+        return null;
+    }
+
+    /**
+     * Remove a follow from the follows stored for a user
+     * @param fromId user id
+     * @param toId unfollowed id
+     */
+    public void removeFollow(String fromId, String toId) {
+        try (Jedis redis = getAuthenticatedJedis()) {
+            redis.srem(FOLLOW_PREFIX + fromId, toId);
+        } catch (Exception e) {
+            Logger.exception(e);
+        }
+    }
+
     /**
      * Get the time that a follows set was set
      * @param fromId id
@@ -426,24 +658,434 @@ public class ApiCache {
      */
     public void cacheStreams(List<Stream> streams) {
         try (Jedis redis = getAuthenticatedJedis()) {
+            Pipeline pipeline = redis.pipelined();
             for (Stream stream : streams) {
                 if (stream == null || ((stream.getUserId() == null || stream.getUserName() == null ||
                         stream.getUserName().getLogin() == null) && stream.isOnline()))
                     continue;
-                if (stream.getUserId() != null && stream.getUserId().equals("168843586") && stream.getTitle() != null
-                        && stream.getTitle().toUpperCase().contains("NFL")) {
-                    stream.setOnline(false);
-                    stream.setTitle("DRM Stream | " + stream.getTitle());
-                    stream.setType("DRM Stream");
-                }
                 String json = gson.toJson(stream);
                 String id = String.format("%s%s", STREAM_PREFIX, stream.getUserId());
-                redis.setex(id, TIMEOUT, json);
+                pipeline.setex(id, TIMEOUT, json);
+                // Track live and offline user ids
+                if (stream.getUserId() == null || stream.getUserId().isEmpty())
+                    continue;
+                if (stream.isOnline()) {
+                    pipeline.sadd(LIVE_KEY, stream.getUserId());
+                    pipeline.zadd(LIVE_SEEN_KEY, System.currentTimeMillis(), stream.getUserId());
+                    pipeline.srem(OFFLINE_KEY, stream.getUserId());
+                    pipeline.zrem(OFFLINE_SEEN_KEY, stream.getUserId());
+                    cacheStreamFragments(pipeline, stream, json);
+                }
+                else {
+                    pipeline.srem(LIVE_KEY, stream.getUserId());
+                    pipeline.zrem(LIVE_SEEN_KEY, stream.getUserId());
+                    pipeline.sadd(OFFLINE_KEY, stream.getUserId());
+                    pipeline.zadd(OFFLINE_SEEN_KEY, System.currentTimeMillis(), stream.getUserId());
+                    pipeline.del(getStreamFragmentKey(stream.getUserId(), false),
+                            getStreamFragmentKey(stream.getUserId(), true));
+                }
+            }
+            pipeline.sync();
+            pruneLiveStreams(redis);
+        }
+        catch (Exception e) {
+            Logger.exception(e);
+        }
+    }
+
+    /**
+     * Get the key of the client json of a live stream
+     * @param userId stream user id
+     * @param loginHidden is the fragment for clients that are not sent logins
+     * @return key
+     */
+    private static String getStreamFragmentKey(String userId, boolean loginHidden) {
+        return STREAM_FRAGMENT_PREFIX + (loginHidden ? "n_" : "l_") + userId;
+    }
+
+    /**
+     * Cache the client json of a live stream for each client profile
+     * A stream cached without a login only has a fragment for clients that are not sent logins.
+     * @param pipeline pipeline to add the commands to
+     * @param stream live stream
+     * @param json stream json
+     */
+    private void cacheStreamFragments(Pipeline pipeline, Stream stream, String json) {
+        UserName userName = stream.getUserName();
+        if (userName.getLogin().isEmpty())
+            pipeline.setex(getStreamFragmentKey(stream.getUserId(), true), TIMEOUT, json);
+        else {
+            pipeline.setex(getStreamFragmentKey(stream.getUserId(), false), TIMEOUT, json);
+            stream.setUserName(new UserName("", userName.getDisplayName()));
+            pipeline.setex(getStreamFragmentKey(stream.getUserId(), true), TIMEOUT, gson.toJson(stream));
+            stream.setUserName(userName);
+        }
+    }
+
+    /**
+     * Get the client json array of live streams from their cached fragments
+     * The fragments are joined without being parsed.
+     * @param userIds user ids of the streams in response order
+     * @param loginHidden is the response for clients that are not sent logins
+     * @return json array or null if any stream does not have a fragment
+     */
+    @Nullable
+    public String getStreamsJson(List<String> userIds, boolean loginHidden) {
+        if (userIds.isEmpty())
+            return "[]";
+        String[] keys = new String[userIds.size()];
+        for (int idIndex = 0; idIndex < userIds.size(); idIndex++)
+            keys[idIndex] = getStreamFragmentKey(userIds.get(idIndex), loginHidden);
+        List<String> fragments;
+        try (Jedis redis = getAuthenticatedJedis()) {
+            fragments = redis.mget(keys);
+        }
+        catch (Exception e) {
+            Logger.exception(e);
+            return null;
+        }
+        StringBuilder json = new StringBuilder(fragments.size() * 512).append('[');
+        for (String fragment : fragments) {
+            if (fragment == null)
+                return null;
+            if (json.length() > 1)
+                json.append(',');
+            json.append(fragment);
+        }
+        return json.append(']').toString();
+    }
+
+    /**
+     * Remove user ids from the live set that have not been seen live for a day and user ids from the offline set that
+     * have not been seen offline since their stream cache expired
+     * Runs at most once per prune interval.
+     * @param redis redis connection
+     */
+    private void pruneLiveStreams(Jedis redis) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (now - lastLivePruneTime < LIVE_PRUNE_INTERVAL)
+                return;
+            lastLivePruneTime = now;
+        }
+        pruneSeenIds(redis, LIVE_KEY, LIVE_SEEN_KEY, now - TIMEOUT_DAY * 1000L);
+        pruneSeenIds(redis, OFFLINE_KEY, OFFLINE_SEEN_KEY, now - TIMEOUT * 1000L);
+    }
+
+    /**
+     * Remove ids last seen before a time from a set and the sorted set of the times they were seen
+     * @param redis redis connection
+     * @param key set key
+     * @param seenKey seen time sorted set key
+     * @param before time in milliseconds
+     */
+    private static void pruneSeenIds(Jedis redis, String key, String seenKey, long before) {
+        Set<String> stale = redis.zrangeByScore(seenKey, 0, before);
+        if (stale.isEmpty())
+            return;
+        String[] staleIds = stale.toArray(new String[0]);
+        redis.srem(key, staleIds);
+        redis.zrem(seenKey, staleIds);
+    }
+
+    /**
+     * Get the live index key suffixes a stream belongs to
+     * @param stream stream
+     * @return key suffixes
+     */
+    private static List<String> getLiveIndexSuffixes(Stream stream) {
+        List<String> suffixes = new ArrayList<>();
+        suffixes.add(LIVE_INDEX_ALL);
+        if (stream.getGameId() != null && !stream.getGameId().isEmpty())
+            suffixes.add("g_" + stream.getGameId());
+        if (stream.getLanguage() != null && !stream.getLanguage().isEmpty())
+            suffixes.add("l_" + stream.getLanguage());
+        return suffixes;
+    }
+
+    /**
+     * Get the key of a live index that is being built
+     * Each crawl builds its index in its own keys, so crawls that overlap do not mix their streams.
+     * @param crawlId id of the crawl building the index
+     * @param suffix key suffix
+     * @return key
+     */
+    private static String getLiveIndexTempKey(String crawlId, String suffix) {
+        return LIVE_INDEX_TEMP_PREFIX + crawlId + "_" + suffix;
+    }
+
+    /**
+     * Add streams to the live index that is being built
+     * The keys of the built index expire after an hour if the crawl never publishes or discards them.
+     * @param crawlId id of the crawl building the index
+     * @param streams live streams
+     * @param suffixes key suffixes of the index being built - suffixes of the added streams are added to it
+     */
+    public void addToLiveIndex(String crawlId, List<Stream> streams, Set<String> suffixes) {
+        try (Jedis redis = getAuthenticatedJedis()) {
+            Pipeline pipeline = redis.pipelined();
+            Set<String> pageSuffixes = new HashSet<>();
+            for (Stream stream : streams) {
+                if (stream.getUserId() == null || stream.getUserId().isEmpty())
+                    continue;
+                for (String suffix : getLiveIndexSuffixes(stream)) {
+                    pipeline.zadd(getLiveIndexTempKey(crawlId, suffix), stream.getViewerCount(),
+                            stream.getUserId());
+                    pageSuffixes.add(suffix);
+                }
+            }
+            for (String suffix : pageSuffixes)
+                pipeline.expire(getLiveIndexTempKey(crawlId, suffix), TIMEOUT_HOUR);
+            pipeline.sync();
+            suffixes.addAll(pageSuffixes);
+        }
+        catch (Exception e) {
+            Logger.exception(e);
+        }
+    }
+
+    /**
+     * Replace the live index with the index that was built
+     * @param crawlId id of the crawl that built the index
+     * @param suffixes key suffixes of the built index
+     * @param complete true if the built index contains every live stream
+     */
+    public void publishLiveIndex(String crawlId, Set<String> suffixes, boolean complete) {
+        try (Jedis redis = getAuthenticatedJedis()) {
+            Set<String> oldSuffixes = redis.smembers(LIVE_INDEX_KEYS);
+            Transaction transaction = redis.multi();
+            for (String oldSuffix : oldSuffixes)
+                if (!suffixes.contains(oldSuffix))
+                    transaction.del(LIVE_INDEX_PREFIX + oldSuffix);
+            transaction.del(LIVE_INDEX_KEYS);
+            for (String suffix : suffixes) {
+                transaction.rename(getLiveIndexTempKey(crawlId, suffix), LIVE_INDEX_PREFIX + suffix);
+                transaction.persist(LIVE_INDEX_PREFIX + suffix);
+                transaction.sadd(LIVE_INDEX_KEYS, suffix);
+            }
+            transaction.hset(LIVE_INDEX_META, "time", String.valueOf(System.currentTimeMillis()));
+            transaction.hset(LIVE_INDEX_META, "complete", String.valueOf(complete));
+            transaction.exec();
+        }
+        catch (Exception e) {
+            Logger.exception(e);
+        }
+    }
+
+    /**
+     * Remove an index that was being built
+     * @param crawlId id of the crawl that built the index
+     * @param suffixes key suffixes of the built index
+     */
+    public void discardLiveIndex(String crawlId, Set<String> suffixes) {
+        if (suffixes.isEmpty())
+            return;
+        try (Jedis redis = getAuthenticatedJedis()) {
+            redis.del(suffixes.stream().map(suffix -> getLiveIndexTempKey(crawlId, suffix))
+                    .toArray(String[]::new));
+        }
+        catch (Exception e) {
+            Logger.exception(e);
+        }
+    }
+
+    /**
+     * Get a page of live user ids from the live index, sorted by viewers
+     * @param game optional game id
+     * @param languages languages - empty for all
+     * @param start index of the first stream
+     * @param count amount of streams
+     * @param maxAge max milliseconds since the index was built
+     * @return user ids or null if the index is too old or does not contain the page
+     */
+    @Nullable
+    public List<String> getLiveIndexPage(@Nullable String game, List<String> languages, long start, long count,
+                                         long maxAge) {
+        try (Jedis redis = getAuthenticatedJedis()) {
+            Map<String, String> meta = redis.hgetAll(LIVE_INDEX_META);
+            long time = StringUtil.parseLong(meta.get("time"));
+            if (System.currentTimeMillis() - time > maxAge)
+                return null;
+            // Find or build the key for the query
+            String key = LIVE_INDEX_PREFIX + LIVE_INDEX_ALL;
+            String languageKey = null;
+            if (languages.size() == 1)
+                languageKey = LIVE_INDEX_PREFIX + "l_" + languages.get(0);
+            else if (languages.size() > 1) {
+                List<String> sortedLanguages = new ArrayList<>(languages);
+                Collections.sort(sortedLanguages);
+                languageKey = createKey(LIVE_INDEX_QUERY_PREFIX + time, sortedLanguages.toArray());
+                if (!redis.exists(languageKey)) {
+                    redis.zunionstore(languageKey, sortedLanguages.stream()
+                            .map(language -> LIVE_INDEX_PREFIX + "l_" + language).toArray(String[]::new));
+                    redis.expire(languageKey, TIMEOUT);
+                }
+            }
+            if (game != null && languageKey != null) {
+                key = createKey(LIVE_INDEX_QUERY_PREFIX + time, game, languageKey);
+                if (!redis.exists(key)) {
+                    redis.zinterstore(key, new ZParams().weightsByDouble(1, 0),
+                            LIVE_INDEX_PREFIX + "g_" + game, languageKey);
+                    redis.expire(key, TIMEOUT);
+                }
             }
+            else if (game != null)
+                key = LIVE_INDEX_PREFIX + "g_" + game;
+            else if (languageKey != null)
+                key = languageKey;
+            // Check that the page is indexed
+            long size = redis.zcard(key);
+            if (!Boolean.parseBoolean(meta.get("complete")) && start + count > size)
+                return null;
+            return new ArrayList<>(redis.zrevrange(key, start, start + count - 1));
         }
         catch (Exception e) {
             Logger.exception(e);
         }
+        return null;
+    }
+
+    /**
+     * Get the key of a list in a top snapshot
+     * @param version snapshot version
+     * @param gameId game id of a stream list or null for the game list
+     * @return key
+     */
+    private static String getTopSnapshotKey(String version, @Nullable String gameId) {
+        return TOP_SNAPSHOT_PREFIX + version + (gameId == null ? "_games" : "_g_" + gameId);
+    }
+
+    /**
+     * Store a snapshot of top games and streams and make it the current snapshot
+     * The previous snapshot is left to expire so requests reading it can finish.
+     * @param games json of each top game in order
+     * @param gameStreams json of each top stream in order mapped to the game id
+     * @param complete game ids, or null for the game list, of lists that contain every entry
+     * @param expire seconds the snapshot is kept
+     */
+    public void publishTopSnapshot(List<String> games, Map<String, List<String>> gameStreams,
+                                   Set<String> complete, int expire) {
+        String version = String.valueOf(System.currentTimeMillis());
+        String metaKey = TOP_SNAPSHOT_PREFIX + version + "_meta";
+        try (Jedis redis = getAuthenticatedJedis()) {
+            Pipeline pipeline = redis.pipelined();
+            Map<String, List<String>> lists = new HashMap<>(gameStreams);
+            lists.put(null, games);
+            for (Map.Entry<String, List<String>> list : lists.entrySet()) {
+                String key = getTopSnapshotKey(version, list.getKey());
+                String field = list.getKey() == null ? "" : list.getKey();
+                if (!list.getValue().isEmpty())
+                    pipeline.rpush(key, list.getValue().toArray(new String[0]));
+                pipeline.expire(key, expire);
+                pipeline.hset(metaKey, field, complete.contains(list.getKey()) ? "complete" : "partial");
+            }
+            pipeline.expire(metaKey, expire);
+            pipeline.setex(TOP_SNAPSHOT_VERSION, expire, version);
+            pipeline.sync();
+        }
+        catch (Exception e) {
+            Logger.exception(e);
+        }
+    }
+
+    /**
+     * Get a slice of a list in the current top snapshot
+     * @param gameId game id to get streams for or null to get games
+     * @param start index of the first entry
+     * @param count amount of entries
+     * @return json array or null if the snapshot does not contain the slice
+     */
+    @Nullable
+    public String getTopSnapshotSlice(@Nullable String gameId, long start, long count) {
+        try (Jedis redis = getAuthenticatedJedis()) {
+            String version = redis.get(TOP_SNAPSHOT_VERSION);
+            if (version == null)
+                return null;
+            String key = getTopSnapshotKey(version, gameId);
+            Pipeline pipeline = redis.pipelined();
+            Response<String> state = pipeline.hget(TOP_SNAPSHOT_PREFIX + version + "_meta",
+                    gameId == null ? "" : gameId);
+            Response<Long> size = pipeline.llen(key);
+            Response<List<String>> entries = pipeline.lrange(key, start, start + count - 1);
+            pipeline.sync();
+            if (state.get() == null)
+                return null;
+            if (!state.get().equals("complete") && start + count > size.get())
+                return null;
+            return "[" + String.join(",", entries.get()) + "]";
+        }
+        catch (Exception e) {
+            Logger.exception(e);
+        }
+        return null;
+    }
+
+    /**
+     * Set a key if it does not exist
+     * @param key key
+     * @param value value
+     * @param timeout expire time in seconds
+     * @return true if the key was set
+     */
+    public boolean setIfAbsent(String key, String value, int timeout) {
+        try (Jedis redis = getAuthenticatedJedis()) {
+            return "OK".equals(redis.set(key, value, "NX", "EX", timeout));
+        }
+        catch (Exception e) {
+            Logger.exception(e);
+        }
+        return false;
+    }
+
+    /**
+     * Set the expire time of a key if it still has a value
+     * Used to extend or release a lock that was set with {@link #setIfAbsent(String, String, int)}.
+     * @param key key
+     * @param value value the key must have
+     * @param timeout expire time in milliseconds
+     * @return true if the key has the value and its expire time was set
+     */
+    public boolean expireIfEquals(String key, String value, long timeout) {
+        try (Jedis redis = getAuthenticatedJedis()) {
+            Object expired = redis.eval(EXPIRE_IF_EQUALS_SCRIPT, Collections.singletonList(key),
+                    Arrays.asList(value, String.valueOf(Math.max(timeout, 1))));
+            return expired instanceof Long && (Long) expired == 1;
+        }
+        catch (Exception e) {
+            Logger.exception(e);
+        }
+        return false;
+    }
+
+    /**
+     * Get the followed user ids split by live status
+     * The live and offline ids are the intersections of the follows set with the sets of live and offline user ids.
+     * Both sets only hold streams that have been cached, so the status of the remaining ids is unknown. Nothing is
+     * parsed, so the cost does not depend on the cached streams of the follows.
+     * @param fromId user id
+     * @return followed ids split by live status or null if the follows of the user are not cached
+     */
+    @Nullable
+    public LiveFollows getLiveFollows(String fromId) {
+        try (Jedis redis = getAuthenticatedJedis()) {
+            Pipeline pipeline = redis.pipelined();
+            Response<Boolean> followsExist = pipeline.exists(FOLLOW_PREFIX + fromId);
+            Response<Set<String>> live = pipeline.sinter(FOLLOW_PREFIX + fromId, LIVE_KEY);
+            Response<Set<String>> offline = pipeline.sinter(FOLLOW_PREFIX + fromId, OFFLINE_KEY);
+            Response<Set<String>> unknown = pipeline.sdiff(FOLLOW_PREFIX + fromId, LIVE_KEY, OFFLINE_KEY);
+            pipeline.sync();
+            if (!followsExist.get())
+                return null;
+            // An id is only in both sets if it was pruned between writes. Live wins.
+            Set<String> offlineIds = offline.get();
+            offlineIds.removeAll(live.get());
+            return new LiveFollows(new ArrayList<>(live.get()), new ArrayList<>(offlineIds),
+                    new ArrayList<>(unknown.get()));
+        }
+        catch (Exception e) {
+            Logger.exception(e);
+            return null;
+        }
     }
 
     /**
@@ -453,33 +1095,32 @@ public class ApiCache {
      */
     @NotNull
     public CachedStreams getStreams(@NotNull List<String> userIds) {
+        CacheBatch batch = new CacheBatch().add(STREAM_PREFIX, userIds);
+        mget(batch);
+        return getStreams(userIds, batch);
+    }
+
+    /**
+     * Get streams from a fetched batch
+     * @param userIds ids to look for
+     * @param batch batch the stream prefix ids were fetched with
+     * @return cached streams object containing any missing ids/login and all found streams
+     */
+    @NotNull
+    public CachedStreams getStreams(@NotNull List<String> userIds, CacheBatch batch) {
         CachedStreams cachedStreams = new CachedStreams();
-        List<Stream> offlineStreams = new ArrayList<>();
-        // Find matching streams
-        Map<String, String> streams = mgetWithPrefix(STREAM_PREFIX, userIds);
-        for (Map.Entry<String, String> streamEntry : streams.entrySet()) {
-            try {
-                Stream stream = gson.fromJson(streamEntry.getValue(), Stream.class);
-                if (stream != null && !stream.isOnline()) {
-                    offlineStreams.add(stream);
-                    continue;
-                }
-                if (stream == null || stream.getUserId() == null || stream.getUserName() == null ||
-                        stream.getUserName().getLogin() == null ||
-                        stream.getUserName().getLogin().isEmpty())
-                    continue;
-                if (userIds.contains(stream.getUserId()))
-                    cachedStreams.getStreams().add(stream);
-            }
-            catch (JsonSyntaxException e) {
-                Logger.exception(e);
-            }
-        }
-        // Populate missing lists
-        for (String id : userIds)
-            if (!StreamUtil.streamListContainsId(cachedStreams.getStreams(), id) &&
-                    !StreamUtil.streamListContainsId(offlineStreams, id))
+        // Find matching streams and partition them in one pass
+        Map<String, Stream> streams = batch.get(STREAM_PREFIX, Stream.class);
+        for (String id : userIds) {
+            Stream stream = streams.get(id);
+            if (stream != null && !stream.isOnline())
+                cachedStreams.addStream(id, stream);
+            else if (stream != null && id.equals(stream.getUserId()) && stream.getUserName() != null &&
+                    stream.getUserName().getLogin() != null && !stream.getUserName().getLogin().isEmpty())
+                cachedStreams.addStream(id, stream);
+            else
                 cachedStreams.getMissingIds().add(id);
+        }
         return cachedStreams;
     }
 
@@ -515,12 +1156,24 @@ public class ApiCache {
      * @return map with values as nulls if not found
      */
     public Map<String, String> getUserIds(List<String> logins) {
-        Map<String, String> cachedIds = mgetWithPrefix(USER_ID_PREFIX, logins);
+        CacheBatch batch = new CacheBatch().add(USER_ID_PREFIX, logins);
+        mget(batch);
+        return getUserIds(logins, batch);
+    }
+
+    /**
+     * Get ids from a fetched batch
+     * @param logins logins to search for
+     * @param batch batch the user id prefix logins were fetched with
+     * @return map with values as nulls if not found
+     */
+    public Map<String, String> getUserIds(List<String> logins, CacheBatch batch) {
+        Map<String, String> cachedIds = batch.get(USER_ID_PREFIX);
         Map<String, String> retIds = new HashMap<>();
         for (String login : logins) {
             if (login == null || login.isEmpty())
                 continue;
-            retIds.put(login, cachedIds.getOrDefault(USER_ID_PREFIX + login, null));
+            retIds.put(login, cachedIds.get(login));
         }
         return retIds;
     }
@@ -0,0 +1,423 @@
+package com.rolandoislas.twitchunofficial.util;
+
+import com.google.gson.Gson;
+import com.rolandoislas.twitchunofficial.data.model.json.twitched.BatchRequest;
+import org.jetbrains.annotations.Nullable;
+import spark.HaltException;
+import spark.QueryParamsMap;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs the sub-requests of a batch request concurrently through the api routes and joins their responses
+ * Sub-requests are sent with the headers of the batch request, so they are authenticated and versioned the same way.
+ * Their bodies are never gzip encoded or answered with not modified as they are embedded in the batch response.
+ */
+public class BatchHandler {
+    private static final int THREADS =
+            (int) Math.max(StringUtil.parseLong(System.getenv().getOrDefault("BATCH_THREADS", "8")), 1);
+    private static final long TIMEOUT =
+            StringUtil.parseLong(System.getenv().getOrDefault("BATCH_TIMEOUT", "20")) * 1000;
+    private static final int MAX_REQUESTS =
+            (int) StringUtil.parseLong(System.getenv().getOrDefault("BATCH_MAX_REQUESTS", "10"));
+    private static final Gson gson = JsonUtil.getGson();
+    private static final ExecutorService executor = Executors.newFixedThreadPool(THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "Batch Request Thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @return max amount of sub-requests in a batch
+     */
+    public static int getMaxRequests() {
+        return MAX_REQUESTS;
+    }
+
+    /**
+     * Run sub-requests and join their responses
+     * Each response has the id and status of its sub-request. The body of a successful response is the json returned
+     * by the route. Failed responses have an error message instead.
+     * @param request batch request
+     * @param batch sub-requests
+     * @param routes routes that can be batched mapped to their paths
+     * @return json array of responses in the order of the sub-requests
+     */
+    public static String handle(Request request, List<BatchRequest> batch, Map<String, Route> routes) {
+        List<SubResponse> responses = new ArrayList<>();
+        List<Future<String>> futures = new ArrayList<>();
+        for (BatchRequest batchRequest : batch) {
+            SubResponse response = new SubResponse();
+            responses.add(response);
+            String path = batchRequest.getPath() == null ? "" : batchRequest.getPath();
+            String queryString = null;
+            int queryIndex = path.indexOf('?');
+            if (queryIndex > -1) {
+                queryString = path.substring(queryIndex + 1);
+                path = path.substring(0, queryIndex);
+            }
+            Route route = routes.get(path);
+            if (route == null) {
+                response.status(404);
+                response.body("Not found: " + path);
+                futures.add(null);
+                continue;
+            }
+            SubRequest subRequest = new SubRequest(request, path, queryString);
+            futures.add(executor.submit(() -> {
+                Object body = route.handle(subRequest, response);
+                return body == null ? null : body.toString();
+            }));
+        }
+        // Wait for every response until the batch times out
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        for (int requestIndex = 0; requestIndex < futures.size(); requestIndex++) {
+            Future<String> future = futures.get(requestIndex);
+            SubResponse response = responses.get(requestIndex);
+            if (future == null)
+                continue;
+            try {
+                response.body(future.get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS));
+            }
+            catch (TimeoutException e) {
+                future.cancel(true);
+                response.status(504);
+                response.body("Gateway Timeout");
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+                response.status(500);
+                response.body("Interrupted");
+            }
+            catch (ExecutionException e) {
+                if (e.getCause() instanceof HaltException) {
+                    HaltException halt = (HaltException) e.getCause();
+                    response.status(halt.statusCode());
+                    response.body(halt.body());
+                }
+                else {
+                    Logger.exception(e);
+                    response.status(500);
+                    response.body("Internal Server Error");
+                }
+            }
+        }
+        // Join responses
+        StringBuilder json = new StringBuilder("[");
+        for (int requestIndex = 0; requestIndex < batch.size(); requestIndex++) {
+            SubResponse response = responses.get(requestIndex);
+            if (requestIndex > 0)
+                json.append(',');
+            json.append("{\"id\":").append(gson.toJson(batch.get(requestIndex).getId()))
+                    .append(",\"status\":").append(response.status());
+            if (response.getLocation() != null)
+                json.append(",\"location\":").append(gson.toJson(response.getLocation()));
+            if (response.status() >= 200 && response.status() < 300) {
+                // Bodies that are not json are sent as a string
+                String body = response.body();
+                json.append(",\"body\":");
+                if (body == null || body.isEmpty())
+                    json.append("null");
+                else if (JsonUtil.isJson(body))
+                    json.append(body);
+                else
+                    json.append(gson.toJson(body));
+            }
+            else if (response.getLocation() == null)
+                json.append(",\"error\":").append(gson.toJson(response.body()));
+            json.append('}');
+        }
+        return json.append(']').toString();
+    }
+
+    /**
+     * Request of a batched route
+     * Headers, and details of the client, are those of the batch request.
+     */
+    private static class SubRequest extends Request {
+        private static final Set<String> EXCLUDED_HEADERS = new HashSet<>(
+                Arrays.asList("accept-encoding", "if-none-match", "content-length", "content-type"));
+        private final Request parent;
+        private final String path;
+        @Nullable private final String queryString;
+        private final Map<String, List<String>> queryParams = new LinkedHashMap<>();
+
+        private SubRequest(Request parent, String path, @Nullable String queryString) {
+            this.parent = parent;
+            this.path = path;
+            this.queryString = queryString;
+            if (queryString == null)
+                return;
+            for (String queryParam : queryString.split("&")) {
+                if (queryParam.isEmpty())
+                    continue;
+                String[] keyValue = queryParam.split("=", 2);
+                queryParams.computeIfAbsent(decode(keyValue[0]), key -> new ArrayList<>())
+                        .add(keyValue.length > 1 ? decode(keyValue[1]) : "");
+            }
+        }
+
+        /**
+         * Decode a query string key or value
+         * @param value encoded value
+         * @return decoded value or the value if it could not be decoded
+         */
+        private static String decode(String value) {
+            try {
+                return URLDecoder.decode(value, "utf-8");
+            }
+            catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                return value;
+            }
+        }
+
+        @Override
+        public Map<String, String> params() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public String params(String param) {
+            return null;
+        }
+
+        @Override
+        public String[] splat() {
+            return new String[0];
+        }
+
+        @Override
+        public String requestMethod() {
+            return "GET";
+        }
+
+        @Override
+        public String scheme() {
+            return parent.scheme();
+        }
+
+        @Override
+        public String host() {
+            return parent.host();
+        }
+
+        @Override
+        public String userAgent() {
+            return parent.userAgent();
+        }
+
+        @Override
+        public int port() {
+            return parent.port();
+        }
+
+        @Override
+        public String pathInfo() {
+            return path;
+        }
+
+        @Override
+        public String servletPath() {
+            return "";
+        }
+
+        @Override
+        public String contextPath() {
+            return "";
+        }
+
+        @Override
+        public String url() {
+            return parent.scheme() + "://" + parent.host() + path;
+        }
+
+        @Override
+        public String uri() {
+            return path;
+        }
+
+        @Override
+        public String protocol() {
+            return parent.protocol();
+        }
+
+        @Override
+        public String contentType() {
+            return null;
+        }
+
+        @Override
+        public String ip() {
+            return parent.ip();
+        }
+
+        @Override
+        public String body() {
+            return "";
+        }
+
+        @Override
+        public byte[] bodyAsBytes() {
+            return new byte[0];
+        }
+
+        @Override
+        public int contentLength() {
+            return 0;
+        }
+
+        @Override
+        public String queryParams(String queryParam) {
+            List<String> values = queryParams.get(queryParam);
+            return values == null || values.isEmpty() ? null : values.get(0);
+        }
+
+        @Override
+        public String queryParamOrDefault(String queryParam, String defaultValue) {
+            String value = queryParams(queryParam);
+            return value == null ? defaultValue : value;
+        }
+
+        @Override
+        public String[] queryParamsValues(String queryParam) {
+            List<String> values = queryParams.get(queryParam);
+            return values == null ? null : values.toArray(new String[0]);
+        }
+
+        @Override
+        public Set<String> queryParams() {
+            return queryParams.keySet();
+        }
+
+        @Override
+        public String queryString() {
+            return queryString;
+        }
+
+        @Override
+        public QueryParamsMap queryMap() {
+            Map<String, String[]> params = new HashMap<>();
+            for (Map.Entry<String, List<String>> queryParam : queryParams.entrySet())
+                params.put(queryParam.getKey(), queryParam.getValue().toArray(new String[0]));
+            return new QueryParamsMap(params) {};
+        }
+
+        @Override
+        public QueryParamsMap queryMap(String key) {
+            return queryMap().get(key);
+        }
+
+        @Override
+        public String headers(String header) {
+            if (header == null || EXCLUDED_HEADERS.contains(header.toLowerCase()))
+                return null;
+            return parent.headers(header);
+        }
+
+        @Override
+        public Set<String> headers() {
+            Set<String> headers = new HashSet<>();
+            for (String header : parent.headers())
+                if (!EXCLUDED_HEADERS.contains(header.toLowerCase()))
+                    headers.add(header);
+            return headers;
+        }
+
+        @Override
+        public Map<String, String> cookies() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public String cookie(String name) {
+            return null;
+        }
+
+        @Override
+        public HttpServletRequest raw() {
+            return parent.raw();
+        }
+    }
+
+    /**
+     * Response of a batched route
+     * Headers are not part of a batched response and are dropped. There is no servlet response, so the body is
+     * always returned by the route.
+     */
+    private static class SubResponse extends Response {
+        private int status = 200;
+        private String body;
+        @Nullable private String location;
+
+        @Override
+        public void status(int statusCode) {
+            status = statusCode;
+        }
+
+        @Override
+        public int status() {
+            return status;
+        }
+
+        @Override
+        public void type(String contentType) {}
+
+        @Override
+        public String type() {
+            return "application/json";
+        }
+
+        @Override
+        public void body(String body) {
+            this.body = body;
+        }
+
+        @Override
+        public String body() {
+            return body;
+        }
+
+        @Override
+        public void redirect(String location) {
+            redirect(location, 302);
+        }
+
+        @Override
+        public void redirect(String location, int httpStatusCode) {
+            this.location = location;
+            status = httpStatusCode;
+        }
+
+        @Override
+        public void header(String header, String value) {}
+
+        /**
+         * @return location the route redirected to or null
+         */
+        @Nullable
+        String getLocation() {
+            return location;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.rolandoislas.twitchunofficial.util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Ids of several key prefixes that are fetched from Redis with one request
+ * Ids are added for each prefix and the values are read per prefix after the batch is passed to
+ * {@link ApiCache#mget(CacheBatch)}. Ids added after a fetch are fetched by the next one.
+ */
+public class CacheBatch {
+    private static final Gson gson = JsonUtil.getGson();
+    private final Map<String, Set<String>> ids = new LinkedHashMap<>();
+    private final Map<String, String> values = new HashMap<>();
+
+    /**
+     * Add ids of a prefix
+     * @param prefix key prefix
+     * @param ids ids to add - null ids are skipped
+     * @return this
+     */
+    public CacheBatch add(String prefix, @Nullable Collection<String> ids) {
+        Set<String> prefixIds = this.ids.computeIfAbsent(prefix, key -> new LinkedHashSet<>());
+        if (ids != null)
+            for (String id : ids)
+                if (id != null)
+                    prefixIds.add(id);
+        return this;
+    }
+
+    /**
+     * @return keys that have not been fetched
+     */
+    List<String> getMissingKeys() {
+        List<String> keys = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> prefixIds : ids.entrySet())
+            for (String id : prefixIds.getValue())
+                if (!values.containsKey(prefixIds.getKey() + id))
+                    keys.add(prefixIds.getKey() + id);
+        return keys;
+    }
+
+    /**
+     * Set the fetched values of keys
+     * @param keys keys
+     * @param keyValues values in the order of the keys - null if the fetch failed
+     */
+    void setValues(List<String> keys, @Nullable List<String> keyValues) {
+        for (int keyIndex = 0; keyIndex < keys.size(); keyIndex++)
+            values.put(keys.get(keyIndex), keyValues == null || keyValues.size() != keys.size() ? null :
+                    keyValues.get(keyIndex));
+    }
+
+    /**
+     * Get the values of a prefix
+     * @param prefix key prefix
+     * @return new map of ids to values - values not in cache are null
+     */
+    public Map<String, @Nullable String> get(String prefix) {
+        Map<String, String> prefixValues = new HashMap<>();
+        for (String id : ids.getOrDefault(prefix, new LinkedHashSet<>()))
+            prefixValues.put(id, values.get(prefix + id));
+        return prefixValues;
+    }
+
+    /**
+     * Get the json values of a prefix as objects
+     * @param prefix key prefix
+     * @param type class of the values
+     * @return new map of ids to objects - values not in cache or that fail to parse are null
+     */
+    public <T> Map<String, @Nullable T> get(String prefix, Class<T> type) {
+        Map<String, T> prefixValues = new HashMap<>();
+        for (Map.Entry<String, String> value : get(prefix).entrySet()) {
+            T object = null;
+            try {
+                object = gson.fromJson(value.getValue(), type);
+            }
+            catch (JsonSyntaxException e) {
+                Logger.exception(e);
+            }
+            prefixValues.put(value.getKey(), object);
+        }
+        return prefixValues;
+    }
+}
@@ -13,24 +13,60 @@ import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.FollowList
 import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.Game;
 import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.User;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import static com.rolandoislas.twitchunofficial.TwitchUnofficial.cache;
 
 /**
  * Checks for any id that need to have their follows cached and polls the api and caches them.
+ * Each crawl is split into steps that are run on a timer when the rate scheduler allows their requests.
  */
 public class FollowsCacher implements Runnable {
+    private static final long STREAM_STATUS_LINGER =
+            StringUtil.parseLong(System.getenv().getOrDefault("STREAM_STATUS_LINGER", "5")) * 1000;
+    private static final StreamStatusBatcher streamStatusBatcher = new StreamStatusBatcher(STREAM_STATUS_LINGER);
+    private static final long FOLLOWS_FULL_SWEEP =
+            StringUtil.parseLong(System.getenv().getOrDefault("FOLLOWS_FULL_SWEEP", "24")) * 60 * 60 * 1000;
+    private static final int USER_HYDRATION_THREADS =
+            (int) Math.max(StringUtil.parseLong(System.getenv().getOrDefault("USER_HYDRATION_THREADS", "4")), 1);
+    private static final ExecutorService userHydrationExecutor =
+            Executors.newFixedThreadPool(USER_HYDRATION_THREADS, runnable -> {
+                Thread thread = new Thread(runnable, "User Hydration Thread");
+                thread.setDaemon(true);
+                return thread;
+            });
     @SuppressWarnings("FieldCanBeLocal")
     private boolean running = false;
-    private Gson gson = new Gson();
-    private List<String> queuedStreamIds = new ArrayList<>();
-    private List<String> queuedStreamLogins = new ArrayList<>();
+    private final Gson gson = JsonUtil.getGson();
+    private final Semaphore crawlPermits;
+    private final ScheduledExecutorService crawlTimer;
+
+    /**
+     * @param crawls max amount of crawls run at once
+     */
+    public FollowsCacher(int crawls) {
+        crawls = Math.max(crawls, 1);
+        crawlPermits = new Semaphore(crawls);
+        crawlTimer = Executors.newScheduledThreadPool(crawls, runnable -> {
+            Thread thread = new Thread(runnable, "Follows Crawl Thread");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
 
     @Override
     public void run() {
@@ -39,15 +75,6 @@ public class FollowsCacher implements Runnable {
             try {
                 cacheFollows();
             }
-            // Empty queue, wait and try again
-            catch (NoSuchElementException e) {
-                try {
-                    Thread.sleep(1000);
-                }
-                catch (InterruptedException e1) {
-                    Logger.exception(e);
-                }
-            }
             // Catch all errors. The cacher should never die.
             catch (Exception e) {
                 Logger.exception(e);
@@ -56,48 +83,87 @@ public class FollowsCacher implements Runnable {
     }
 
     /**
-     * Check for id to get follow and cache to Redis
+     * Check for id to get follow and start a crawl that caches them to Redis
      */
-    private void cacheFollows() throws InterruptedException, NoSuchElementException {
-        // Get follows for id
-        QueueItem queueItem = TwitchUnofficialApi.followIdsToCache.element();
+    private void cacheFollows() throws InterruptedException {
+        // Request stream status for a batch that has lingered
+        cacheStreamStatus(streamStatusBatcher.takeReady());
+        // Wait for a crawl to finish if the max amount are running
+        if (!crawlPermits.tryAcquire(1, TimeUnit.SECONDS))
+            return;
+        boolean crawlStarted = false;
+        try {
+            // Get follows for id
+            QueueItem queueItem = TwitchUnofficialApi.followIdsToCache.poll(1, TimeUnit.SECONDS);
+            if (queueItem == null)
+                return;
+            // Stream status items are completed when their batch is requested
+            if (queueItem instanceof StreamStatusQueue) {
+                cacheStreamStatus(streamStatusBatcher.add((StreamStatusQueue) queueItem));
+                return;
+            }
+            Crawl crawl = createCrawl(queueItem);
+            if (crawl == null) {
+                TwitchUnofficialApi.followIdsToCache.complete(queueItem);
+                return;
+            }
+            scheduleCrawl(crawl, queueItem);
+            crawlStarted = true;
+        }
+        finally {
+            if (!crawlStarted)
+                crawlPermits.release();
+        }
+    }
+
+    /**
+     * Create the crawl for a queue item
+     * @param queueItem item taken from the queue
+     * @return crawl or null if the item is invalid
+     */
+    @Nullable
+    private Crawl createCrawl(QueueItem queueItem) {
         if (queueItem instanceof FollowQueue) {
             FollowQueue followQueue = (FollowQueue) queueItem;
             String fromId = followQueue.getUserId();
             if (fromId != null && followQueue.getFollowType() != null) {
                 switch (followQueue.getFollowType()) {
                     case CHANNEL:
-                        getFollowsForId(fromId);
-                        break;
+                        return new FollowsCrawl(fromId);
                     case GAME:
-                        getFollowedGamesForId(fromId);
-                        break;
+                        return new FollowedGamesCrawl(fromId);
                 }
             }
         }
-        else if (queueItem instanceof StreamStatusQueue) {
-            StreamStatusQueue statusQueue = (StreamStatusQueue) queueItem;
-            switch (statusQueue.getType()) {
-                case ID:
-                    if (!queuedStreamIds.contains(statusQueue.getUserIdentifier()))
-                        queuedStreamIds.add(statusQueue.getUserIdentifier());
-                    break;
-                case LOGIN:
-                    if (!queuedStreamLogins.contains(statusQueue.getUserIdentifier()))
-                        queuedStreamLogins.add(statusQueue.getUserIdentifier());
-                    break;
-            }
-            if (queuedStreamIds.size() + queuedStreamLogins.size() == 100) {
-                try {
-                    cacheStreamStatus(queuedStreamIds, queuedStreamLogins);
-                }
-                finally {
-                    queuedStreamIds.clear();
-                    queuedStreamLogins.clear();
-                }
+        return null;
+    }
+
+    /**
+     * Schedule the next step of a crawl when the rate scheduler allows its requests
+     * The queue item is completed and the crawl permit released when the crawl finishes.
+     * @param crawl crawl to step
+     * @param queueItem item the crawl was created for
+     */
+    private void scheduleCrawl(Crawl crawl, QueueItem queueItem) {
+        long delay = TwitchUnofficialApi.rateScheduler.reserve(crawl.getRequests());
+        crawlTimer.schedule(() -> {
+            boolean finished = true;
+            try {
+                finished = crawl.step();
             }
-        }
-        TwitchUnofficialApi.followIdsToCache.remove();
+            // Catch all errors. A failed crawl is finished.
+            catch (Exception e) {
+                Logger.exception(e);
+            }
+            if (finished) {
+                TwitchUnofficialApi.followIdsToCache.complete(queueItem);
+                crawlPermits.release();
+            }
+            else {
+                TwitchUnofficialApi.followIdsToCache.renew(queueItem);
+                scheduleCrawl(crawl, queueItem);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -111,136 +177,241 @@ public class FollowsCacher implements Runnable {
                 null, null, ids, logins, null, true);
     }
 
+    /**
+     * Request and cache the streams in a batch and complete its queue items
+     * The request is scheduled when the rate scheduler allows it.
+     * @param batch batch of streams or null to do nothing
+     */
+    private void cacheStreamStatus(@Nullable StreamStatusBatcher.Batch batch) {
+        if (batch == null)
+            return;
+        // A batch holds at most one request worth of ids and logins
+        long delay = TwitchUnofficialApi.rateScheduler.reserve(1);
+        crawlTimer.schedule(() -> {
+            try {
+                cacheStreamStatus(new ArrayList<>(batch.getIds()), new ArrayList<>(batch.getLogins()));
+            }
+            // Catch all errors. The timer thread should never die.
+            catch (Exception e) {
+                Logger.exception(e);
+            }
+            finally {
+                for (QueueItem queueItem : batch.getItems())
+                    TwitchUnofficialApi.followIdsToCache.complete(queueItem);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * A background fetch made of one or more steps of requests
+     */
+    private interface Crawl {
+        /**
+         * @return amount of requests the next step makes
+         */
+        int getRequests();
+
+        /**
+         * Run the next step
+         * @return true if the crawl is finished
+         */
+        boolean step() throws Exception;
+    }
+
     /**
      * Get the games that a user follows
-     * @param fromUserName user name to get follows for
      */
-    private void getFollowedGamesForId(String fromUserName) throws InterruptedException {
-        Logger.debug("FollowsCacher: Getting followed games for user id %s.", fromUserName);
-        List<Game> followedGames = new ArrayList<>();
-        long limit = 100;
-        long offset = 0;
-        boolean hasNext = true;
-        do {
+    private class FollowedGamesCrawl implements Crawl {
+        private static final long LIMIT = 100;
+        private final String fromUserName;
+        private final List<Game> followedGames = new ArrayList<>();
+        private long offset = 0;
+
+        /**
+         * @param fromUserName user name to get follows for
+         */
+        private FollowedGamesCrawl(String fromUserName) {
+            this.fromUserName = fromUserName;
+            Logger.debug("FollowsCacher: Getting followed games for user id %s.", fromUserName);
+        }
+
+        @Override
+        public int getRequests() {
+            return 1;
+        }
+
+        @Override
+        public boolean step() {
             @NotNull FollowedGamesWithRate followedGamesWithRate =
-                    TwitchUnofficialApi.getFollowedGamesWithRate(null, fromUserName, limit, offset);
+                    TwitchUnofficialApi.getFollowedGamesWithRate(null, fromUserName, LIMIT, offset);
             List<Game> followedGameSublist = followedGamesWithRate.getFollowedGames();
-            if (followedGameSublist.size() < limit)
-                hasNext = false;
             followedGames.addAll(followedGameSublist);
             offset++;
-            Thread.sleep(1000);
-            // Rate limit is low
-            if (followedGamesWithRate.getRateRemaining() < TwitchUnofficialApi.RATE_LIMIT_MAX / 4) {
-                Logger.debug("FollowsCacher: Rate limit is low. Halting for 10 seconds");
-                Thread.sleep(10000);
-            }
+            if (followedGameSublist.size() >= LIMIT)
+                return false;
+            cacheFollowedGames();
+            return true;
         }
-        while (hasNext);
-        // Cache followed games
-        List<String> followedIds = new ArrayList<>();
-        for (Game game : followedGames)
-            if (game.getId() != null)
-                followedIds.add(game.getId());
-        cache.setFollowedGames(fromUserName, followedIds);
-        // Cache games
-        Map<String, String> gamesJson = new HashMap<>();
-        for (Game game : followedGames) {
-            if (game.getId() == null)
-                continue;
-            try {
-                gamesJson.put(game.getId(), gson.toJson(game));
-            }
-            catch (JsonSyntaxException e) {
-                Logger.exception(e);
+
+        /**
+         * Cache the followed games of the user
+         */
+        private void cacheFollowedGames() {
+            // Cache followed games
+            List<String> followedIds = new ArrayList<>();
+            for (Game game : followedGames)
+                if (game.getId() != null)
+                    followedIds.add(game.getId());
+            cache.setFollowedGames(fromUserName, followedIds);
+            // Cache games
+            Map<String, String> gamesJson = new HashMap<>();
+            for (Game game : followedGames) {
+                if (game.getId() == null)
+                    continue;
                 try {
-                    gamesJson.put(game.getId(), gson.toJson(new Game()));
+                    gamesJson.put(game.getId(), gson.toJson(game));
                 }
-                catch (JsonSyntaxException ee) {
-                    Logger.exception(ee);
+                catch (JsonSyntaxException e) {
+                    Logger.exception(e);
+                    try {
+                        gamesJson.put(game.getId(), gson.toJson(new Game()));
+                    }
+                    catch (JsonSyntaxException ee) {
+                        Logger.exception(ee);
+                    }
                 }
             }
+            cache.setGamesJson(gamesJson);
         }
-        cache.setGamesJson(gamesJson);
     }
 
     /**
-     * Get all follows for an id and save to the cache
-     * @param fromId id
+     * Get all follows for an id and save to the cache, then fetch and cache the followed users
      */
-    private void getFollowsForId(String fromId) throws InterruptedException {
-        Logger.debug("FollowsCacher: Getting follows for user id %s.", fromId);
-        List<String> followIds = new ArrayList<>();
-        // Get all follows
-        String pagination = null;
-        int followAmount = 0;
-        do {
+    private class FollowsCrawl implements Crawl {
+        private final String fromId;
+        private final List<String> followIds = new ArrayList<>();
+        private final Map<String, String> followedAtIds = new HashMap<>();
+        @Nullable private String pagination;
+        @Nullable private List<String> missingIds;
+        private int missingIndex = 0;
+        private final Map<String, String> userIdMap = new HashMap<>();
+        @Nullable private final String knownFollowedAt;
+        @Nullable private String newestFollowedAt;
+
+        /**
+         * Follows are requested newest first. If the stored follows are recent enough, paging stops at the first
+         * follow that is not newer than the newest stored follow.
+         * @param fromId id
+         */
+        private FollowsCrawl(String fromId) {
+            this.fromId = fromId;
+            knownFollowedAt = cache.getNewestFollowedAt(fromId, FOLLOWS_FULL_SWEEP);
+            Logger.debug("FollowsCacher: Getting %s follows for user id %s.",
+                    knownFollowedAt == null ? "all" : "new", fromId);
+        }
+
+        @Override
+        public int getRequests() {
+            if (missingIds == null)
+                return 1;
+            return (int) Math.min(USER_HYDRATION_THREADS,
+                    Math.ceil((missingIds.size() - missingIndex) / 100d));
+        }
+
+        @Override
+        public boolean step() throws InterruptedException {
+            if (missingIds == null)
+                return stepFollows();
+            return stepUsers();
+        }
+
+        /**
+         * Request a page of follows
+         * @return true if the crawl is finished
+         */
+        private boolean stepFollows() {
             FollowList userFollows = TwitchUnofficialApi.getUserFollows(pagination,
                     null, "100", fromId, null, false);
+            int followAmount = 0;
+            boolean reachedKnown = false;
             if (userFollows != null && userFollows.getFollows() != null) {
                 pagination = userFollows.getPagination() != null ? userFollows.getPagination().getCursor() : null;
                 followAmount = userFollows.getFollows().size();
-                for (Follow follow : userFollows.getFollows())
-                    if (follow.getToId() != null)
+                for (Follow follow : userFollows.getFollows()) {
+                    String followedAt = follow.getFollowedAt();
+                    if (knownFollowedAt != null && followedAt != null && followedAt.compareTo(knownFollowedAt) <= 0) {
+                        reachedKnown = true;
+                        break;
+                    }
+                    if (followedAt != null && (newestFollowedAt == null || followedAt.compareTo(newestFollowedAt) > 0))
+                        newestFollowedAt = followedAt;
+                    if (follow.getToId() != null) {
                         followIds.add(follow.getToId());
-                // Rate limit is low
-                if (userFollows.getRateLimitRemaining() < TwitchUnofficialApi.RATE_LIMIT_MAX / 4) {
-                    Logger.debug("FollowsCacher: Rate limit is low. Halting for 60 seconds");
-                    Thread.sleep(60000);
+                        if (followedAt != null)
+                            followedAtIds.put(follow.getToId(), followedAt);
+                    }
                 }
             }
             else
                 pagination = null;
-            Thread.sleep(2000);
+            if (!reachedKnown && followAmount == 100 && pagination != null)
+                return false;
+            // Cache follows
+            if (knownFollowedAt == null)
+                cache.setFollows(fromId, followIds, followedAtIds, newestFollowedAt, FOLLOWS_FULL_SWEEP);
+            else
+                cache.addFollows(fromId, followIds, followedAtIds, newestFollowedAt);
+            // Find non-cached users
+            Map<String, String> users = cache.getUserNames(followIds);
+            Set<String> missingFromCache = new LinkedHashSet<>();
+            for (Map.Entry<String, String> userEntry : users.entrySet())
+                if (userEntry.getValue() == null && userEntry.getKey() != null)
+                    missingFromCache.add(userEntry.getKey());
+            Logger.debug("FollowsCacher: Fetching %d users from ids", missingFromCache.size());
+            missingIds = new ArrayList<>(missingFromCache);
+            return missingIds.isEmpty();
         }
-        while (followAmount == 100 && pagination != null);
-        // Cache follows
-        cache.setFollows(fromId, followIds);
-        // Fetch user data and cache from IDS
-        cacheUsers(followIds);
-    }
 
-    /**
-     * Fetch users by id and cache
-     * Only user ids not in the cache will be fetched
-     * @param ids user ids to fetch
-     */
-    private void cacheUsers(List<String> ids) throws InterruptedException {
-        // Find non-cached users
-        Map<String, String> users = cache.getUserNames(ids);
-        List<String> missingFromCache = new ArrayList<>();
-        for (Map.Entry<String, String> userEntry : users.entrySet()) {
-            if (userEntry.getValue() == null && userEntry.getKey() != null &&
-                    !missingFromCache.contains(userEntry.getKey())) {
-                missingFromCache.add(userEntry.getKey());
+        /**
+         * Fetch users by id and cache
+         * Batches of 100 ids are requested concurrently and all fetched users are written back in a single pipeline.
+         * @return true if the crawl is finished
+         */
+        private boolean stepUsers() throws InterruptedException {
+            assert missingIds != null;
+            // Request a wave of batches at once
+            List<Future<UsersWithRate>> requests = new ArrayList<>();
+            int waveEnd = Math.min(missingIndex + 100 * USER_HYDRATION_THREADS, missingIds.size());
+            for (int batchIndex = missingIndex; batchIndex < waveEnd; batchIndex += 100) {
+                List<String> fetchIds = missingIds.subList(batchIndex, Math.min(batchIndex + 100, waveEnd));
+                requests.add(userHydrationExecutor.submit(() -> TwitchUnofficialApi.getUsersWithRate(fetchIds,
+                        null, null, null, null)));
             }
-        }
-        // Fetch users
-        Logger.debug("FollowsCacher: Fetching %d users from ids", missingFromCache.size());
-        for (int idIndex = 0; idIndex < missingFromCache.size(); idIndex += 100) {
-            List<String> fetchIds = missingFromCache.subList(idIndex, Math.min(idIndex, missingFromCache.size()));
-            if (fetchIds.size() > 0) {
-                UsersWithRate usersWithRate = TwitchUnofficialApi.getUsersWithRate(fetchIds,
-                        null, null, null, null);
+            missingIndex = waveEnd;
+            for (Future<UsersWithRate> request : requests) {
+                UsersWithRate usersWithRate;
+                try {
+                    usersWithRate = request.get();
+                }
+                catch (ExecutionException e) {
+                    Logger.exception(e);
+                    continue;
+                }
                 if (usersWithRate.getUsers() == null)
-                    return;
-                List<User> fetchedUsers = usersWithRate.getUsers();
-                Map<String, String> userIdMap = new HashMap<>();
-                for (User fetchedUser : fetchedUsers) {
+                    continue;
+                for (User fetchedUser : usersWithRate.getUsers()) {
                     try {
-                        String userString = gson.toJson(fetchedUser);
-                        userIdMap.put(fetchedUser.getId(), userString);
+                        userIdMap.put(fetchedUser.getId(), gson.toJson(fetchedUser));
                     } catch (JsonSyntaxException e) {
                         Logger.exception(e);
                     }
                 }
-                cache.setUsersJson(userIdMap);
-                if (usersWithRate.getRateLimit() < TwitchUnofficialApi.RATE_LIMIT_MAX / 4) {
-                    Logger.debug("FollowsCacher: Rate limit is low. Halting for 10 seconds");
-                    Thread.sleep(10000);
-                }
-                Thread.sleep(2000);
             }
+            if (missingIndex < missingIds.size())
+                return false;
+            cache.setUsersJson(userIdMap);
+            return true;
         }
     }
 }
@@ -1,18 +1,35 @@
 package com.rolandoislas.twitchunofficial.util;
 
+import com.rolandoislas.twitchunofficial.data.model.ClientProfile;
 import org.apache.maven.artifact.versioning.ComparableVersion;
 import org.jetbrains.annotations.NotNull;
 import spark.Request;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 public class HeaderUtil {
+    private static final int MAX_RESOLVED_VERSIONS = 1000;
+    private static final Map<String, ClientProfile> resolvedVersions = new ConcurrentHashMap<>();
+
     /**
-     * Extract X-Twitched-Version header if present and wrap it in a ComparableVersion
+     * Extract X-Twitched-Version header if present and resolve the client profile of the version
+     * Resolved versions are remembered, so a version string is only parsed once.
      * @param request spark request
-     * @return ComparableVersion - 1.0 if no header is present
+     * @return ClientProfile - profile of 1.0 if no header is present
      */
     @NotNull
-    public static ComparableVersion extractVersion(Request request) {
+    public static ClientProfile extractProfile(Request request) {
         String versionString = request.headers("X-Twitched-Version");
-        return new ComparableVersion(versionString == null ? "1.0" : versionString);
+        if (versionString == null)
+            versionString = "1.0";
+        ClientProfile profile = resolvedVersions.get(versionString);
+        if (profile != null)
+            return profile;
+        profile = ClientProfile.fromVersion(new ComparableVersion(versionString));
+        // Do not let arbitrary header values grow the map without bound
+        if (resolvedVersions.size() < MAX_RESOLVED_VERSIONS)
+            resolvedVersions.put(versionString, profile);
+        return profile;
     }
 }
@@ -0,0 +1,99 @@
+package com.rolandoislas.twitchunofficial.util;
+
+import com.rolandoislas.twitchunofficial.TwitchUnofficialApi;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warms the access token and master playlist of a live channel in the background
+ * Clients request a single stream's status right before requesting its HLS playlist, so prefetching on the status
+ * request lets the playlist request be served from the cache.
+ * Channels with a cached playlist are skipped. Other prefetches take their requests from the Twitch rate budget and
+ * are dropped if the budget does not allow them before the client requests the playlist.
+ */
+public class HlsPrefetcher {
+    private static final boolean ENABLED =
+            Boolean.parseBoolean(System.getenv().getOrDefault("HLS_PREFETCH", "false"));
+    private static final int THREADS =
+            (int) Math.max(StringUtil.parseLong(System.getenv().getOrDefault("HLS_PREFETCH_THREADS", "2")), 1);
+    private static final int MAX_IN_FLIGHT = 50; // Prefetches checked, waiting, or running at once
+    private static final long MAX_DELAY = 2000; // Milliseconds a prefetch can wait for the rate budget
+    private static final int REQUESTS = 2; // Access token and master playlist requests made by a prefetch
+    private static final ScheduledExecutorService executor = Executors.newScheduledThreadPool(THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "HLS Prefetch Thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Prefetch the master playlist for a channel if prefetching is enabled and it is not cached
+     * @param username channel login or ":" followed by the user id
+     * @param userToken optional user provided twitch oauth token the playlist will be requested with
+     */
+    public static void prefetch(String username, @Nullable String userToken) {
+        if (!ENABLED || username == null || username.isEmpty())
+            return;
+        String key = ApiCache.createKey("hls", username, AuthUtil.hashString(userToken, null));
+        if (inFlight.size() >= MAX_IN_FLIGHT || !inFlight.add(key))
+            return;
+        boolean scheduled = false;
+        try {
+            executor.execute(() -> checkAndSchedule(key, username, userToken));
+            scheduled = true;
+        }
+        catch (RejectedExecutionException e) {
+            Logger.exception(e);
+        }
+        finally {
+            if (!scheduled)
+                inFlight.remove(key);
+        }
+    }
+
+    /**
+     * Schedule the prefetch when the rate budget allows it if the playlist is not cached
+     * @param key in flight key
+     * @param username channel login or ":" followed by the user id
+     * @param userToken optional user provided twitch oauth token
+     */
+    private static void checkAndSchedule(String key, String username, @Nullable String userToken) {
+        boolean scheduled = false;
+        try {
+            if (TwitchUnofficialApi.isHlsDataCached(username, userToken))
+                return;
+            long delay = TwitchUnofficialApi.rateScheduler.tryReserve(REQUESTS, MAX_DELAY);
+            if (delay < 0) {
+                Logger.debug("Skipped HLS prefetch for %s: Rate budget exhausted", username);
+                return;
+            }
+            executor.schedule(() -> {
+                try {
+                    TwitchUnofficialApi.prefetchHlsData(username, userToken);
+                }
+                // Halts and request failures are expected for channels that went offline
+                catch (Exception e) {
+                    Logger.debug("Failed to prefetch HLS playlist for %s: %s", username, e.getMessage());
+                }
+                finally {
+                    inFlight.remove(key);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+            scheduled = true;
+        }
+        // Catch all errors. The executor threads should never die.
+        catch (Exception e) {
+            Logger.exception(e);
+        }
+        finally {
+            if (!scheduled)
+                inFlight.remove(key);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.rolandoislas.twitchunofficial.util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.rolandoislas.twitchunofficial.data.model.StreamQuality;
+import com.rolandoislas.twitchunofficial.data.model.json.twitch.Token;
+import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.Game;
+import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.Stream;
+import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.User;
+import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.UserName;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shared Gson instance with the type adapters of frequently serialized models registered
+ * The adapters read and write the same json as Gson's reflective adapter. The read helpers convert values the same
+ * way Gson does for the matching field types.
+ */
+public class JsonUtil {
+    public static final Type USER_LIST_TYPE = new TypeToken<List<User>>() {}.getType();
+    public static final Type STREAM_QUALITY_LIST_TYPE = new TypeToken<List<StreamQuality>>() {}.getType();
+    private static final Gson gson = new GsonBuilder()
+            .registerTypeAdapter(Stream.class, new Stream.Adapter().nullSafe())
+            .registerTypeAdapter(UserName.class, new UserName.Adapter().nullSafe())
+            .registerTypeAdapter(User.class, new User.Adapter().nullSafe())
+            .registerTypeAdapter(Game.class, new Game.Adapter().nullSafe())
+            .registerTypeAdapter(Token.class, new Token.Adapter().nullSafe())
+            .registerTypeAdapter(StreamQuality.class, new StreamQuality.Adapter().nullSafe())
+            .create();
+
+    /**
+     * @return shared Gson instance
+     */
+    public static Gson getGson() {
+        return gson;
+    }
+
+    /**
+     * Check if a string is a single json value
+     * The value is read without being parsed into objects.
+     * @param json string to check
+     * @return true if the string is valid json
+     */
+    public static boolean isJson(@Nullable String json) {
+        if (json == null)
+            return false;
+        try {
+            JsonReader reader = new JsonReader(new StringReader(json));
+            reader.skipValue();
+            return reader.peek() == JsonToken.END_DOCUMENT;
+        }
+        catch (IOException | IllegalStateException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Read a string value
+     * @param reader reader
+     * @return string or null if the value is null
+     */
+    @Nullable
+    public static String nextString(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        if (token == JsonToken.BOOLEAN)
+            return Boolean.toString(reader.nextBoolean());
+        return reader.nextString();
+    }
+
+    /**
+     * Read a long value
+     * @param reader reader
+     * @param defaultValue value returned if the value is null
+     * @return long
+     * @throws JsonSyntaxException value is not a number
+     */
+    public static long nextLong(JsonReader reader, long defaultValue) throws IOException {
+        Long value = nextLong(reader);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Read a long value
+     * @param reader reader
+     * @return long or null if the value is null
+     * @throws JsonSyntaxException value is not a number
+     */
+    @Nullable
+    public static Long nextLong(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        try {
+            return reader.nextLong();
+        }
+        catch (NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    /**
+     * Read an int value
+     * @param reader reader
+     * @param defaultValue value returned if the value is null
+     * @return int
+     * @throws JsonSyntaxException value is not a number
+     */
+    public static int nextInt(JsonReader reader, int defaultValue) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return defaultValue;
+        }
+        try {
+            return reader.nextInt();
+        }
+        catch (NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    /**
+     * Read a boolean value
+     * @param reader reader
+     * @param defaultValue value returned if the value is null
+     * @return boolean
+     */
+    public static boolean nextBoolean(JsonReader reader, boolean defaultValue) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.NULL) {
+            reader.nextNull();
+            return defaultValue;
+        }
+        if (token == JsonToken.STRING)
+            return Boolean.parseBoolean(reader.nextString());
+        return reader.nextBoolean();
+    }
+
+    /**
+     * Read an array of strings
+     * @param reader reader
+     * @return list or null if the value is null
+     */
+    @Nullable
+    public static List<String> nextStringList(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        List<String> list = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext())
+            list.add(nextString(reader));
+        reader.endArray();
+        return list;
+    }
+
+    /**
+     * Write an array of strings
+     * @param writer writer
+     * @param list list - null writes a null value
+     */
+    public static void writeStringList(JsonWriter writer, @Nullable List<String> list) throws IOException {
+        if (list == null) {
+            writer.nullValue();
+            return;
+        }
+        writer.beginArray();
+        for (String value : list)
+            writer.value(value);
+        writer.endArray();
+    }
+}
@@ -0,0 +1,185 @@
+package com.rolandoislas.twitchunofficial.util;
+
+import com.rolandoislas.twitchunofficial.TwitchUnofficialApi;
+import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.Stream;
+import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.StreamList;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.rolandoislas.twitchunofficial.TwitchUnofficial.cache;
+
+/**
+ * Pages through live streams, up to the page limit, and indexes them by viewers, game, and language in Redis
+ * A crawl is started every interval by a single instance. Its pages are requested when the rate scheduler allows
+ * them, and the new index replaces the old one once the crawl is finished.
+ * The instance holds the lock while its crawl runs and keeps it until an interval has passed since the crawl
+ * started. A crawl is not started while the previous one is running.
+ */
+public class LiveStreamIndexer {
+    private static final long INTERVAL =
+            StringUtil.parseLong(System.getenv().getOrDefault("LIVE_INDEX_INTERVAL", "0")) * 1000;
+    private static final long PAGES = StringUtil.parseLong(System.getenv().getOrDefault("LIVE_INDEX_PAGES", "100"));
+    private static final String LOCK_KEY = "_lv_lock";
+    private static final long LOCK_TIMEOUT = Math.max(INTERVAL, 60 * 1000); // Milliseconds a step extends the lock
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Live Index Thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static boolean started = false;
+    // Only accessed on the timer thread
+    private static boolean crawling = false;
+
+    /**
+     * @return true if live streams are indexed
+     */
+    public static boolean isEnabled() {
+        return INTERVAL > 0 && PAGES > 0;
+    }
+
+    /**
+     * @return max milliseconds since the index was built for it to be used
+     */
+    public static long getMaxAge() {
+        return INTERVAL * 3;
+    }
+
+    /**
+     * Start indexing if enabled
+     */
+    public static synchronized void start() {
+        if (!isEnabled() || started)
+            return;
+        started = true;
+        timer.scheduleWithFixedDelay(LiveStreamIndexer::startCrawl, 0, INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Start a crawl if no other instance has started one this interval and the last crawl is finished
+     */
+    private static void startCrawl() {
+        try {
+            if (crawling)
+                return;
+            Crawl crawl = new Crawl();
+            if (!cache.setIfAbsent(LOCK_KEY, crawl.id, (int) Math.max(LOCK_TIMEOUT / 1000, 1)))
+                return;
+            Logger.debug("LiveStreamIndexer: Indexing live streams");
+            crawling = true;
+            scheduleStep(crawl);
+        }
+        // Catch all errors. The indexer should never die.
+        catch (Exception e) {
+            Logger.exception(e);
+        }
+    }
+
+    /**
+     * Schedule the next step of a crawl when the rate scheduler allows its requests
+     * @param crawl crawl to step
+     */
+    private static void scheduleStep(Crawl crawl) {
+        long delay = TwitchUnofficialApi.rateScheduler.reserve(crawl.getRequests());
+        // Keep the lock until the step has run
+        if (!cache.expireIfEquals(LOCK_KEY, crawl.id, delay + LOCK_TIMEOUT)) {
+            Logger.warn("LiveStreamIndexer: Lost the index lock. Discarding crawl.");
+            crawl.discard();
+            finishCrawl(crawl);
+            return;
+        }
+        timer.schedule(() -> {
+            boolean finished = true;
+            try {
+                finished = crawl.step();
+            }
+            // Catch all errors. A failed crawl is discarded.
+            catch (Exception e) {
+                Logger.exception(e);
+                crawl.discard();
+            }
+            if (finished)
+                finishCrawl(crawl);
+            else
+                scheduleStep(crawl);
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Allow the next crawl to start
+     * The lock is kept until an interval has passed since the crawl started, so other instances do not crawl again
+     * in the same interval.
+     * @param crawl crawl that was published or discarded
+     */
+    private static void finishCrawl(Crawl crawl) {
+        crawling = false;
+        cache.expireIfEquals(LOCK_KEY, crawl.id, crawl.startTime + INTERVAL - System.currentTimeMillis());
+    }
+
+    /**
+     * Index built from pages of live streams
+     * Users and games of a page that are not cached are requested in a step of their own, so their requests are
+     * reserved from the rate scheduler too.
+     */
+    private static class Crawl {
+        private final String id = UUID.randomUUID().toString();
+        private final long startTime = System.currentTimeMillis();
+        private final Set<String> suffixes = new HashSet<>();
+        private String after;
+        private long pages = 0;
+        @Nullable private StreamList page;
+        private int nameRequests = 0;
+
+        /**
+         * @return amount of Twitch requests the next step makes
+         */
+        private int getRequests() {
+            return page == null ? 1 : nameRequests;
+        }
+
+        /**
+         * Request the next page or add names to the requested page, and index it
+         * @return true if the crawl is finished
+         */
+        private boolean step() {
+            if (page == null) {
+                page = TwitchUnofficialApi.getLiveStreamsPage(null, after);
+                if (page == null) {
+                    discard();
+                    return true;
+                }
+                nameRequests = TwitchUnofficialApi.getNameRequests(page.getStreams());
+                if (nameRequests > 0)
+                    return false;
+            }
+            StreamList streamList = page;
+            page = null;
+            List<Stream> streams = streamList.getStreams();
+            TwitchUnofficialApi.addNames(streams);
+            pages++;
+            cache.cacheStreams(streams);
+            cache.addToLiveIndex(id, streams, suffixes);
+            after = streamList.getPagination() == null ? null : streamList.getPagination().getCursor();
+            boolean complete = streams.isEmpty() || after == null || after.isEmpty();
+            if (complete || pages >= PAGES) {
+                cache.publishLiveIndex(id, suffixes, complete);
+                Logger.debug("LiveStreamIndexer: Indexed %d pages of live streams", pages);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Remove the partial index
+         */
+        private void discard() {
+            cache.discardLiveIndex(id, suffixes);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.rolandoislas.twitchunofficial.util;
+
+import com.rolandoislas.twitchunofficial.data.model.MasterPlaylist;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory store of parsed master playlists
+ * Redis remains the source of truth. A parsed playlist is only reused while its raw text matches the text stored in
+ * Redis, so the parse and any generated variants live exactly as long as the Redis entry.
+ */
+public class PlaylistCache {
+    public static final long TIMEOUT = 10 * 60 * 1000; // Milliseconds before a parsed playlist is discarded
+    public static final long TIMEOUT_LONG = 60 * 60 * 1000; // Timeout for playlists that do not change
+    private static final int MAX_SIZE = 2000;
+    private static final Map<String, MasterPlaylist> masterPlaylists = new ConcurrentHashMap<>();
+
+    /**
+     * Get a parsed master playlist for a raw playlist, parsing and storing it if there is no matching entry
+     * @param key cache key of the raw playlist
+     * @param raw raw playlist as stored in Redis
+     * @return parsed master playlist
+     */
+    @NotNull
+    public static MasterPlaylist getMasterPlaylist(String key, @NotNull String raw) {
+        return getMasterPlaylist(key, raw, TIMEOUT);
+    }
+
+    /**
+     * Get a parsed master playlist for a raw playlist, parsing and storing it if there is no matching entry
+     * @param key cache key of the raw playlist
+     * @param raw raw playlist as stored in Redis
+     * @param timeout milliseconds a newly parsed playlist is kept
+     * @return parsed master playlist
+     */
+    @NotNull
+    public static MasterPlaylist getMasterPlaylist(String key, @NotNull String raw, long timeout) {
+        MasterPlaylist masterPlaylist = masterPlaylists.get(key);
+        if (masterPlaylist != null && !masterPlaylist.isExpired() && masterPlaylist.getRaw().equals(raw))
+            return masterPlaylist;
+        masterPlaylist = new MasterPlaylist(raw, timeout);
+        if (masterPlaylists.size() >= MAX_SIZE)
+            removeExpired();
+        masterPlaylists.put(key, masterPlaylist);
+        return masterPlaylist;
+    }
+
+    /**
+     * Remove all parsed playlists that have expired
+     * If the cache is still full afterwards it is cleared
+     */
+    private static void removeExpired() {
+        masterPlaylists.values().removeIf(MasterPlaylist::isExpired);
+        if (masterPlaylists.size() >= MAX_SIZE) {
+            Logger.debug("PlaylistCache: Cache full. Clearing %d entries.", masterPlaylists.size());
+            masterPlaylists.clear();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.rolandoislas.twitchunofficial.util;
+
+/**
+ * Spreads background requests over the remaining Twitch rate limit budget
+ * The allowed rate is recomputed from the remaining budget and reset time of the latest response, keeping a reserve
+ * for interactive requests. Callers reserve a start time instead of sleeping.
+ */
+public class RateScheduler {
+    private final int reserve;
+    private final long minInterval;
+    private int remaining;
+    private long reset;
+    private long nextPermitTime;
+
+    /**
+     * @param reserve requests left in the budget for interactive requests
+     * @param minInterval min milliseconds between background requests
+     */
+    public RateScheduler(int reserve, long minInterval) {
+        this.reserve = reserve;
+        this.minInterval = minInterval;
+    }
+
+    /**
+     * Update the budget from a rate limited response
+     * @param remaining requests remaining in the window
+     * @param reset epoch seconds the window resets at
+     */
+    public synchronized void update(int remaining, long reset) {
+        this.remaining = remaining;
+        this.reset = reset * 1000;
+    }
+
+    /**
+     * Reserve requests from the budget
+     * @param permits amount of requests that will be made
+     * @return milliseconds to wait before making the requests
+     */
+    public synchronized long reserve(int permits) {
+        return tryReserve(permits, Long.MAX_VALUE);
+    }
+
+    /**
+     * Reserve requests from the budget if they can be made soon
+     * @param permits amount of requests that will be made
+     * @param maxDelay max milliseconds to wait
+     * @return milliseconds to wait before making the requests or -1 if nothing was reserved
+     */
+    public synchronized long tryReserve(int permits, long maxDelay) {
+        permits = Math.max(permits, 1);
+        long now = System.currentTimeMillis();
+        long start = Math.max(now, nextPermitTime);
+        // Not enough budget left in the window. The permits are free again when it resets.
+        if (reset > start && remaining - reserve < permits)
+            start = reset;
+        if (start - now > maxDelay)
+            return -1;
+        nextPermitTime = start + getInterval(start) * permits;
+        // Only reservations in the current window take from its budget. The budget of the next window is not known
+        // until a response reports it.
+        if (reset > start)
+            remaining = Math.max(remaining - permits, 0);
+        return start - now;
+    }
+
+    /**
+     * Get the time between requests allowed by the budget
+     * Must be called while synchronized
+     * @param time time the requests will be made at
+     * @return interval in milliseconds
+     */
+    private long getInterval(long time) {
+        // The window has reset and the budget is full
+        if (reset <= time)
+            return minInterval;
+        long window = reset - time;
+        int available = Math.max(remaining - reserve, 1);
+        return Math.max(minInterval, window / available);
+    }
+}
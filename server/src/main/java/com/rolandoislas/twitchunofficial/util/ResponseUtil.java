@@ -0,0 +1,237 @@
+package com.rolandoislas.twitchunofficial.util;
+
+import com.google.common.hash.Hashing;
+import com.rolandoislas.twitchunofficial.data.model.CachedResponse;
+import org.jetbrains.annotations.Nullable;
+import spark.Request;
+import spark.Response;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static com.rolandoislas.twitchunofficial.TwitchUnofficial.cache;
+
+/**
+ * Stores response bodies gzip compressed and writes them to clients without recompressing
+ * A compressed body is written directly to the raw response, committing it, so Spark does not serialize or compress
+ * the returned value again. Bodies are stored with an entity tag so conditional requests are answered with not
+ * modified without hashing the body again.
+ */
+public class ResponseUtil {
+    private static final byte[] EMPTY_ARRAY = gzip("[]");
+
+    /**
+     * Compress a body
+     * @param body body
+     * @return gzip bytes
+     */
+    public static byte[] gzip(String body) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        catch (IOException e) {
+            Logger.exception(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decompress a body
+     * @param body gzip bytes
+     * @return body or null if it could not be decompressed
+     */
+    @Nullable
+    public static String gunzip(byte[] body) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length * 4);
+        try (InputStream gzip = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = gzip.read(buffer)) != -1)
+                bytes.write(buffer, 0, read);
+        }
+        catch (IOException e) {
+            Logger.exception(e);
+            return null;
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Check if a compressed body is an empty json array
+     * @param body gzip bytes
+     * @return true if the body is "[]"
+     */
+    public static boolean isEmptyArray(byte[] body) {
+        return Arrays.equals(body, EMPTY_ARRAY);
+    }
+
+    /**
+     * Check if the client accepts gzip encoded responses
+     * @param request request
+     * @return true if the Accept-Encoding header allows gzip
+     */
+    public static boolean acceptsGzip(Request request) {
+        String acceptEncoding = request.headers("Accept-Encoding");
+        if (acceptEncoding == null)
+            return false;
+        for (String encoding : acceptEncoding.split(",")) {
+            String[] params = encoding.trim().split(";");
+            if (!params[0].trim().equalsIgnoreCase("gzip") && !params[0].trim().equals("*"))
+                continue;
+            for (int paramIndex = 1; paramIndex < params.length; paramIndex++) {
+                String param = params[paramIndex].trim().replace(" ", "");
+                if (param.startsWith("q=") && StringUtil.parseDouble(param.substring(2)) <= 0)
+                    return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Create the entity tag of a body
+     * @param body response body
+     * @return entity tag without quotes
+     */
+    public static String createEtag(String body) {
+        return Hashing.sha1().hashString(body, StandardCharsets.UTF_8).toString();
+    }
+
+    /**
+     * Check if the client already has the body with an entity tag
+     * @param request request
+     * @param etag quoted entity tag
+     * @return true if If-None-Match contains the tag
+     */
+    private static boolean isNotModified(Request request, String etag) {
+        String ifNoneMatch = request.headers("If-None-Match");
+        if (ifNoneMatch == null)
+            return false;
+        for (String match : ifNoneMatch.split(",")) {
+            match = match.trim();
+            if (match.startsWith("W/"))
+                match = match.substring(2);
+            if (match.equals("*") || match.equals(etag))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Set the entity tag header and answer with not modified if the client has the body
+     * The gzip encoded body has its own tag as it is a different representation.
+     * @param request request
+     * @param response response
+     * @param etag entity tag of the uncompressed body
+     * @param gzip will the body be gzip encoded
+     * @return true if not modified was sent
+     */
+    private static boolean checkEtag(Request request, Response response, String etag, boolean gzip) {
+        String tag = "\"" + etag + (gzip ? "-gzip" : "") + "\"";
+        response.header("ETag", tag);
+        if (!isNotModified(request, tag))
+            return false;
+        response.status(304);
+        return true;
+    }
+
+    /**
+     * Send an uncached body with its entity tag, answering with not modified if the client has it
+     * @param request request
+     * @param response response
+     * @param body response body
+     * @return value to return from the route
+     */
+    public static String sendWithEtag(Request request, Response response, String body) {
+        if (checkEtag(request, response, createEtag(body), false))
+            return "";
+        return body;
+    }
+
+    /**
+     * Send an uncached body gzip encoded when the client accepts it, with its entity tag
+     * @param request request
+     * @param response response
+     * @param body response body
+     * @return value to return from the route
+     */
+    public static String compressAndSend(Request request, Response response, String body) {
+        if (!acceptsGzip(request)) {
+            response.header("Vary", "Accept-Encoding");
+            return sendWithEtag(request, response, body);
+        }
+        return send(request, response, new CachedResponse(gzip(body), createEtag(body)));
+    }
+
+    /**
+     * Get a compressed response from the cache
+     * @param key cache key
+     * @return response or null if not cached
+     */
+    @Nullable
+    public static CachedResponse getCached(String key) {
+        return cache.getCompressed(key);
+    }
+
+    /**
+     * Compress and cache a body with its entity tag and send it
+     * @param request request
+     * @param response response
+     * @param key cache key
+     * @param body response body
+     * @return value to return from the route
+     */
+    public static String cacheAndSend(Request request, Response response, String key, String body) {
+        CachedResponse cachedResponse = new CachedResponse(gzip(body), createEtag(body));
+        cache.setCompressed(key, cachedResponse);
+        if (!acceptsGzip(request)) {
+            response.header("Vary", "Accept-Encoding");
+            if (checkEtag(request, response, cachedResponse.getEtag(), false))
+                return "";
+            return body;
+        }
+        return send(request, response, cachedResponse);
+    }
+
+    /**
+     * Send a cached response, decompressing it if the client does not accept gzip
+     * Not modified is sent if the client has the body. A response without a servlet response, such as one of a
+     * batched request, gets the decompressed body returned as the gzip bytes can only be written to a servlet.
+     * @param request request
+     * @param response response
+     * @param cachedResponse cached response
+     * @return value to return from the route
+     */
+    public static String send(Request request, Response response, CachedResponse cachedResponse) {
+        response.header("Vary", "Accept-Encoding");
+        boolean gzip = acceptsGzip(request) && response.raw() != null;
+        if (checkEtag(request, response, cachedResponse.getEtag(), gzip))
+            return "";
+        if (!gzip) {
+            String decompressed = gunzip(cachedResponse.getBody());
+            return decompressed == null ? "" : decompressed;
+        }
+        byte[] body = cachedResponse.getBody();
+        response.header("Content-Encoding", "gzip");
+        HttpServletResponse raw = response.raw();
+        raw.setContentLength(body.length);
+        try {
+            OutputStream outputStream = raw.getOutputStream();
+            outputStream.write(body);
+            outputStream.flush();
+        }
+        catch (IOException e) {
+            Logger.exception(e);
+        }
+        return "";
+    }
+}
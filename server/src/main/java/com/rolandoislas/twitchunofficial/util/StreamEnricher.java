@@ -0,0 +1,125 @@
+package com.rolandoislas.twitchunofficial.util;
+
+import com.rolandoislas.twitchunofficial.data.model.ClientProfile;
+import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.Stream;
+import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.User;
+import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.UserName;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Post-processes streams and videos requested from Twitch in a single pass
+ * Steps are added in the order they should run and all of them are applied to a stream before the next stream.
+ */
+public class StreamEnricher {
+    private static final Pattern DURATION_REGEX = Pattern.compile("(?:(\\d+)d)?(?:(\\d+)h)?(?:(\\d+)m)?(?:(\\d+)s)");
+    private static final String PRIME_VIDEO_ID = "168843586";
+    private final List<Consumer<Stream>> steps = new ArrayList<>();
+
+    /**
+     * Set user names and game names
+     * Streams without a complete user are given a blank user name and streams without a game name a blank game name.
+     * @param users users mapped to ids
+     * @param gameNames game names mapped to ids
+     * @param profile client profile - null to send logins
+     * @return this
+     */
+    public StreamEnricher addNames(Map<String, User> users, Map<String, String> gameNames,
+                                   @Nullable ClientProfile profile) {
+        boolean shouldSendLogin = profile == null || profile.shouldSendLogin();
+        steps.add(stream -> {
+            User user = users.get(stream.getUserId());
+            stream.setUserName(user == null || user.getDisplayName() == null || user.getDisplayName().isEmpty() ||
+                    user.getLogin() == null || user.getLogin().isEmpty() ?
+                    new UserName("" , "") :
+                    new UserName(shouldSendLogin ? user.getLogin() : "", user.getDisplayName()));
+            String gameName = gameNames.get(stream.getGameId());
+            stream.setGameName(gameName == null ? "" : gameName);
+        });
+        return this;
+    }
+
+    /**
+     * Flag streams that require widevine as encrypted and mark them as DRM streams
+     * DRM streams are cached as offline.
+     * TODO Poll the GQL Twitch endpoint to determine if the stream is encrypted
+     * @return this
+     */
+    public StreamEnricher flagEncrypted() {
+        steps.add(stream -> {
+            // Prime Video NFL stream
+            if (PRIME_VIDEO_ID.equals(stream.getUserId()) && stream.getTitle() != null &&
+                    stream.getTitle().toUpperCase().contains("NFL")) {
+                stream.setEncrypted(true);
+                stream.setOnline(false);
+                stream.setTitle("DRM Stream | " + stream.getTitle());
+                stream.setType("DRM Stream");
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Convert the video duration string to seconds
+     * @return this
+     */
+    public StreamEnricher parseDuration() {
+        steps.add(video -> {
+            if (video.getDuration() == null)
+                return;
+            Matcher matcher = DURATION_REGEX.matcher(video.getDuration());
+            if (!matcher.matches())
+                return;
+            long durationSeconds = 0;
+            // Seconds
+            if (matcher.groupCount() >= 4)
+                durationSeconds += StringUtil.parseLong(matcher.group(4));
+            // Minutes
+            if (matcher.groupCount() >= 3)
+                durationSeconds += StringUtil.parseLong(matcher.group(3)) * 60;
+            // Hours
+            if (matcher.groupCount() >= 2)
+                durationSeconds += StringUtil.parseLong(matcher.group(2)) * 60 * 60;
+            // Days
+            if (matcher.groupCount() >= 1)
+                durationSeconds += StringUtil.parseLong(matcher.group(1)) * 24 * 60 * 60;
+            video.setDurationSeconds(durationSeconds);
+        });
+        return this;
+    }
+
+    /**
+     * Replace the %{width} and %{height} thumbnail template with {width} and {height} for clients that use it
+     * @param profile client profile - null for the latest client
+     * @return this
+     */
+    public StreamEnricher normalizeThumbnailTemplate(@Nullable ClientProfile profile) {
+        if (profile != null && !profile.usesBraceThumbnailTemplate())
+            return this;
+        steps.add(video -> {
+            if (video.getThumbnailUrl() != null && !video.getThumbnailUrl().isEmpty())
+                video.setThumbnailUrl(video.getThumbnailUrl().replace("%{width}", "{width}")
+                        .replace("%{height}", "{height}"));
+        });
+        return this;
+    }
+
+    /**
+     * Apply every step to each stream
+     * @param streams streams to modify
+     */
+    public void apply(List<Stream> streams) {
+        for (Stream stream : streams) {
+            if (stream == null)
+                continue;
+            for (Consumer<Stream> step : steps)
+                step.accept(stream);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.rolandoislas.twitchunofficial.util;
+
+import com.rolandoislas.twitchunofficial.data.model.QueueItem;
+import com.rolandoislas.twitchunofficial.data.model.StreamStatusQueue;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Collects stream status refreshes into batches
+ * A batch is ready when it holds the max amount of streams a request can return or when its oldest refresh has waited
+ * for the linger time, whichever comes first.
+ */
+public class StreamStatusBatcher {
+    public static final int BATCH_SIZE = 100;
+    private final long linger;
+    private final Set<String> ids = new LinkedHashSet<>();
+    private final Set<String> logins = new LinkedHashSet<>();
+    private final List<QueueItem> items = new ArrayList<>();
+    private long firstAddTime;
+
+    /**
+     * @param linger max milliseconds a refresh waits before its batch is ready
+     */
+    public StreamStatusBatcher(long linger) {
+        this.linger = linger;
+    }
+
+    /**
+     * Add a stream to the next batch
+     * @param item stream status queue item
+     * @return the batch if adding the stream filled it - null otherwise
+     */
+    @Nullable
+    public synchronized Batch add(StreamStatusQueue item) {
+        if (items.isEmpty())
+            firstAddTime = System.currentTimeMillis();
+        switch (item.getType()) {
+            case ID:
+                ids.add(item.getUserIdentifier());
+                break;
+            case LOGIN:
+                logins.add(item.getUserIdentifier());
+                break;
+        }
+        items.add(item);
+        return ids.size() + logins.size() >= BATCH_SIZE ? take() : null;
+    }
+
+    /**
+     * Take the pending batch if it is full or has lingered long enough
+     * @return batch or null if no batch is ready
+     */
+    @Nullable
+    public synchronized Batch takeReady() {
+        if (items.isEmpty())
+            return null;
+        if (ids.size() + logins.size() < BATCH_SIZE && System.currentTimeMillis() - firstAddTime < linger)
+            return null;
+        return take();
+    }
+
+    /**
+     * Take the pending batch and start a new one
+     * Must be called while synchronized
+     * @return batch
+     */
+    private Batch take() {
+        Batch batch = new Batch(new ArrayList<>(ids), new ArrayList<>(logins), new ArrayList<>(items));
+        ids.clear();
+        logins.clear();
+        items.clear();
+        return batch;
+    }
+
+    public static class Batch {
+        private final List<String> ids;
+        private final List<String> logins;
+        private final List<QueueItem> items;
+
+        private Batch(List<String> ids, List<String> logins, List<QueueItem> items) {
+            this.ids = Collections.unmodifiableList(ids);
+            this.logins = Collections.unmodifiableList(logins);
+            this.items = Collections.unmodifiableList(items);
+        }
+
+        public List<String> getIds() {
+            return ids;
+        }
+
+        public List<String> getLogins() {
+            return logins;
+        }
+
+        /**
+         * @return queue items included in the batch
+         */
+        public List<QueueItem> getItems() {
+            return items;
+        }
+    }
+}
@@ -19,6 +19,21 @@ public class StringUtil {
         return parsedLong;
     }
 
+    /**
+     * Safely parse a double
+     * @param number string to parse
+     * @return parsed double or 0 on failure
+     */
+    public static double parseDouble(@Nullable String number) {
+        double parsedDouble = 0;
+        try {
+            if (number != null)
+                parsedDouble = Double.parseDouble(number);
+        }
+        catch (NumberFormatException ignore) {}
+        return parsedDouble;
+    }
+
     /**
      * Safely parse a string to a boolean value
      * A value of case-insensitive "true" will result in a true boolean.
@@ -0,0 +1,245 @@
+package com.rolandoislas.twitchunofficial.util;
+
+import com.google.gson.Gson;
+import com.rolandoislas.twitchunofficial.TwitchUnofficialApi;
+import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.Game;
+import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.GameList;
+import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.Pagination;
+import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.Stream;
+import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.StreamList;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.rolandoislas.twitchunofficial.TwitchUnofficial.cache;
+
+/**
+ * Periodically stores the top games and the top streams of the most popular games as one snapshot in Redis
+ * Every offset of the top games and game streams endpoints is served from the same snapshot, so pages do not overlap
+ * or skip entries and the amount of Twitch requests does not depend on how far users page.
+ * The instance holds the lock while its snapshot is created and keeps it until an interval has passed since the
+ * snapshot started. A snapshot is not started while the previous one is being created.
+ */
+public class TopSnapshotPublisher {
+    private static final long INTERVAL =
+            StringUtil.parseLong(System.getenv().getOrDefault("TOP_SNAPSHOT_INTERVAL", "0")) * 1000;
+    private static final int GAMES =
+            (int) StringUtil.parseLong(System.getenv().getOrDefault("TOP_SNAPSHOT_GAMES", "100"));
+    private static final int STREAM_GAMES =
+            (int) StringUtil.parseLong(System.getenv().getOrDefault("TOP_SNAPSHOT_STREAM_GAMES", "20"));
+    private static final int STREAMS =
+            (int) StringUtil.parseLong(System.getenv().getOrDefault("TOP_SNAPSHOT_STREAMS", "100"));
+    private static final int PAGE_SIZE = 100;
+    private static final String LOCK_KEY = "_ts_lock";
+    private static final long LOCK_TIMEOUT = Math.max(INTERVAL, 60 * 1000); // Milliseconds a step extends the lock
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Top Snapshot Thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Gson gson = JsonUtil.getGson();
+    private static boolean started = false;
+    // Only accessed on the timer thread
+    private static boolean creating = false;
+
+    /**
+     * @return true if snapshots are published
+     */
+    public static boolean isEnabled() {
+        return INTERVAL > 0 && GAMES > 0;
+    }
+
+    /**
+     * Start publishing if enabled
+     */
+    public static synchronized void start() {
+        if (!isEnabled() || started)
+            return;
+        started = true;
+        timer.scheduleWithFixedDelay(TopSnapshotPublisher::startSnapshot, 0, INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Start a snapshot if no other instance has started one this interval and the last snapshot is finished
+     */
+    private static void startSnapshot() {
+        try {
+            if (creating)
+                return;
+            Snapshot snapshot = new Snapshot();
+            if (!cache.setIfAbsent(LOCK_KEY, snapshot.id, (int) Math.max(LOCK_TIMEOUT / 1000, 1)))
+                return;
+            Logger.debug("TopSnapshotPublisher: Creating top games and streams snapshot");
+            creating = true;
+            scheduleStep(snapshot);
+        }
+        // Catch all errors. The publisher should never die.
+        catch (Exception e) {
+            Logger.exception(e);
+        }
+    }
+
+    /**
+     * Schedule the next step of a snapshot when the rate scheduler allows its requests
+     * @param snapshot snapshot to step
+     */
+    private static void scheduleStep(Snapshot snapshot) {
+        long delay = TwitchUnofficialApi.rateScheduler.reserve(snapshot.getRequests());
+        // Keep the lock until the step has run
+        if (!cache.expireIfEquals(LOCK_KEY, snapshot.id, delay + LOCK_TIMEOUT)) {
+            Logger.warn("TopSnapshotPublisher: Lost the snapshot lock. Discarding snapshot.");
+            finishSnapshot(snapshot);
+            return;
+        }
+        timer.schedule(() -> {
+            boolean finished = true;
+            try {
+                finished = snapshot.step();
+            }
+            // Catch all errors. A failed snapshot is not published.
+            catch (Exception e) {
+                Logger.exception(e);
+            }
+            if (finished)
+                finishSnapshot(snapshot);
+            else
+                scheduleStep(snapshot);
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Allow the next snapshot to start
+     * The lock is kept until an interval has passed since the snapshot started, so other instances do not create
+     * another in the same interval.
+     * @param snapshot snapshot that was published or discarded
+     */
+    private static void finishSnapshot(Snapshot snapshot) {
+        creating = false;
+        cache.expireIfEquals(LOCK_KEY, snapshot.id, snapshot.startTime + INTERVAL - System.currentTimeMillis());
+    }
+
+    /**
+     * Get the next cursor of a page
+     * @param pagination pagination of the page
+     * @return cursor or null if there are no more pages
+     */
+    @Nullable
+    private static String getCursor(@Nullable Pagination pagination) {
+        if (pagination == null || pagination.getCursor() == null || pagination.getCursor().isEmpty())
+            return null;
+        return pagination.getCursor();
+    }
+
+    /**
+     * Snapshot built from pages of top games and then pages of streams for each of the first games
+     * Users and games of a stream page that are not cached are requested in a step of their own, so their requests
+     * are reserved from the rate scheduler too.
+     */
+    private static class Snapshot {
+        private final String id = UUID.randomUUID().toString();
+        private final long startTime = System.currentTimeMillis();
+        private final List<String> games = new ArrayList<>();
+        private final List<String> gameIds = new ArrayList<>();
+        private final Map<String, List<String>> gameStreams = new HashMap<>();
+        private final Set<String> complete = new HashSet<>();
+        private String after;
+        private int gameIndex = -1;
+        @Nullable private StreamList page;
+        private int nameRequests = 0;
+
+        /**
+         * @return amount of Twitch requests the next step makes
+         */
+        private int getRequests() {
+            return page == null ? 1 : nameRequests;
+        }
+
+        /**
+         * Request the next page or add names to the requested stream page
+         * @return true if the snapshot is finished
+         */
+        private boolean step() {
+            if (gameIndex < 0)
+                return stepGames();
+            return stepStreams();
+        }
+
+        /**
+         * Request a page of top games
+         * @return true if the snapshot is finished
+         */
+        private boolean stepGames() {
+            GameList gameList = TwitchUnofficialApi.getTopGamesPage(after, null,
+                    String.valueOf(Math.min(PAGE_SIZE, GAMES - games.size())));
+            if (gameList == null)
+                return true;
+            for (Game game : gameList.getGames()) {
+                games.add(gson.toJson(game));
+                if (game.getId() != null && !game.getId().isEmpty() && gameIds.size() < STREAM_GAMES)
+                    gameIds.add(game.getId());
+            }
+            after = getCursor(gameList.getPagination());
+            if (gameList.getGames().isEmpty() || after == null)
+                complete.add(null);
+            else if (games.size() < GAMES)
+                return false;
+            after = null;
+            return nextGame();
+        }
+
+        /**
+         * Request a page of streams for the current game or add names to the requested page
+         * @return true if the snapshot is finished
+         */
+        private boolean stepStreams() {
+            String gameId = gameIds.get(gameIndex);
+            if (page == null) {
+                page = TwitchUnofficialApi.getLiveStreamsPage(gameId, after);
+                if (page == null)
+                    return true;
+                nameRequests = TwitchUnofficialApi.getNameRequests(page.getStreams());
+                if (nameRequests > 0)
+                    return false;
+            }
+            StreamList streamList = page;
+            page = null;
+            List<String> streams = gameStreams.computeIfAbsent(gameId, key -> new ArrayList<>());
+            List<Stream> pageStreams = streamList.getStreams();
+            TwitchUnofficialApi.addNames(pageStreams);
+            cache.cacheStreams(pageStreams);
+            for (Stream stream : pageStreams)
+                if (streams.size() < STREAMS)
+                    streams.add(gson.toJson(stream));
+            after = getCursor(streamList.getPagination());
+            if (pageStreams.isEmpty() || after == null)
+                complete.add(gameId);
+            else if (streams.size() < STREAMS)
+                return false;
+            after = null;
+            return nextGame();
+        }
+
+        /**
+         * Move to the next game that streams are requested for, publishing the snapshot after the last game
+         * @return true if the snapshot is finished
+         */
+        private boolean nextGame() {
+            gameIndex++;
+            if (gameIndex < gameIds.size() && STREAMS > 0)
+                return false;
+            cache.publishTopSnapshot(games, gameStreams, complete, (int) Math.max(INTERVAL * 3 / 1000, 1));
+            Logger.debug("TopSnapshotPublisher: Published %d games and streams for %d games", games.size(),
+                    gameStreams.size());
+            return true;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.rolandoislas.twitchunofficial.util;
+
+import com.google.common.hash.Hashing;
+import com.rolandoislas.twitchunofficial.data.model.FollowQueue;
+import com.rolandoislas.twitchunofficial.data.model.QueueItem;
+import com.rolandoislas.twitchunofficial.data.model.QueueStats;
+import com.rolandoislas.twitchunofficial.data.model.StreamStatusQueue;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.rolandoislas.twitchunofficial.TwitchUnofficial.cache;
+
+/**
+ * Bounded priority queue of background work stored in Redis and shared by all instances
+ * Items that are already queued or leased are ignored. When the queue is full, a high priority item replaces the
+ * newest lower priority item. Otherwise the offered item is dropped.
+ * Taking an item leases it for a time. An item that is not completed before its lease expires is queued again, so
+ * every item is processed at least once.
+ */
+public class WorkQueue {
+    private static final long POLL_INTERVAL = 250; // Milliseconds between checks of a queue that was just emptied
+    private static final long MAX_POLL_INTERVAL = 2000; // Milliseconds between checks of a queue that stays empty
+    private static final String KEY_PREFIX = "_wq_";
+    private static final String OFFER_SCRIPT =
+            "redis.call('HINCRBY', KEYS[5], 'offered', 1)\n" +
+            "if redis.call('SISMEMBER', KEYS[3], ARGV[1]) == 1 then\n" +
+            "  redis.call('HINCRBY', KEYS[5], 'duplicates', 1)\n" +
+            "  return 0\n" +
+            "end\n" +
+            "local lists = {KEYS[1], KEYS[2]}\n" +
+            "local priority = tonumber(ARGV[2])\n" +
+            "if redis.call('LLEN', KEYS[1]) + redis.call('LLEN', KEYS[2]) >= tonumber(ARGV[3]) then\n" +
+            "  redis.call('HINCRBY', KEYS[5], 'dropped', 1)\n" +
+            "  local evicted = false\n" +
+            "  for index = #lists, priority + 1, -1 do\n" +
+            "    local member = redis.call('RPOP', lists[index])\n" +
+            "    if member then\n" +
+            "      redis.call('SREM', KEYS[3], member)\n" +
+            "      redis.call('HDEL', KEYS[6], member)\n" +
+            "      evicted = true\n" +
+            "      break\n" +
+            "    end\n" +
+            "  end\n" +
+            "  if not evicted then return 0 end\n" +
+            "end\n" +
+            "redis.call('SADD', KEYS[3], ARGV[1])\n" +
+            "redis.call('HSET', KEYS[6], ARGV[1], ARGV[4])\n" +
+            "redis.call('RPUSH', lists[priority], ARGV[1])\n" +
+            "return 1";
+    private static final String POLL_SCRIPT =
+            "local lists = {KEYS[1], KEYS[2]}\n" +
+            "local now = tonumber(ARGV[1])\n" +
+            "for _, member in ipairs(redis.call('ZRANGEBYSCORE', KEYS[4], '-inf', now)) do\n" +
+            "  redis.call('ZREM', KEYS[4], member)\n" +
+            "  redis.call('LPUSH', lists[tonumber(string.sub(member, 1, 1)) + 1], member)\n" +
+            "  redis.call('HSET', KEYS[6], member, now)\n" +
+            "  redis.call('HINCRBY', KEYS[5], 'expired', 1)\n" +
+            "end\n" +
+            "for index = 1, #lists do\n" +
+            "  local member = redis.call('LPOP', lists[index])\n" +
+            "  if member then\n" +
+            "    redis.call('ZADD', KEYS[4], now + tonumber(ARGV[2]), member)\n" +
+            "    local wait = now - tonumber(redis.call('HGET', KEYS[6], member) or now)\n" +
+            "    redis.call('HDEL', KEYS[6], member)\n" +
+            "    redis.call('HINCRBY', KEYS[5], 'taken', 1)\n" +
+            "    redis.call('HINCRBY', KEYS[5], 'wait', wait)\n" +
+            "    if wait > tonumber(redis.call('HGET', KEYS[5], 'max_wait') or 0) then\n" +
+            "      redis.call('HSET', KEYS[5], 'max_wait', wait)\n" +
+            "    end\n" +
+            "    return member\n" +
+            "  end\n" +
+            "end\n" +
+            "return false";
+    private static final String COMPLETE_SCRIPT =
+            "if redis.call('ZREM', KEYS[4], ARGV[1]) == 1 then\n" +
+            "  redis.call('SREM', KEYS[3], ARGV[1])\n" +
+            "end\n" +
+            "return 0";
+    private static final String RENEW_SCRIPT =
+            "if redis.call('ZSCORE', KEYS[4], ARGV[1]) then\n" +
+            "  redis.call('ZADD', KEYS[4], tonumber(ARGV[2]) + tonumber(ARGV[3]), ARGV[1])\n" +
+            "  return 1\n" +
+            "end\n" +
+            "return 0";
+    private static final Map<String, String> SCRIPT_SHAS = createScriptShas(OFFER_SCRIPT, POLL_SCRIPT,
+            COMPLETE_SCRIPT, RENEW_SCRIPT);
+
+    private final int capacity;
+    private final long lease;
+    private final List<String> keys;
+    private volatile long pollInterval = POLL_INTERVAL;
+
+    /**
+     * @param name name of the queue used for its Redis keys
+     * @param capacity max amount of items that can be queued
+     * @param lease milliseconds a taken item is leased before it is queued again
+     */
+    public WorkQueue(String name, int capacity, long lease) {
+        this.capacity = Math.max(capacity, 1);
+        this.lease = lease;
+        String prefix = KEY_PREFIX + name + "_";
+        this.keys = Collections.unmodifiableList(Arrays.asList(
+                prefix + QueueItem.Priority.HIGH.ordinal(),
+                prefix + QueueItem.Priority.LOW.ordinal(),
+                prefix + "items",
+                prefix + "leases",
+                prefix + "stats",
+                prefix + "times"
+        ));
+    }
+
+    /**
+     * Map scripts to the SHA1 digests Redis caches them by
+     * @param scripts lua scripts
+     * @return digests mapped to scripts
+     */
+    private static Map<String, String> createScriptShas(String... scripts) {
+        Map<String, String> shas = new HashMap<>();
+        for (String script : scripts)
+            shas.put(script, Hashing.sha1().hashString(script, StandardCharsets.UTF_8).toString());
+        return Collections.unmodifiableMap(shas);
+    }
+
+    /**
+     * Run a queue script
+     * The script is run by its digest. It is only sent when Redis does not have it cached, such as after a restart.
+     * @param script lua script
+     * @param args script arguments
+     * @return script result or null on failure
+     */
+    @Nullable
+    private Object eval(String script, String... args) {
+        try (Jedis redis = cache.getAuthenticatedJedis()) {
+            try {
+                return redis.evalsha(SCRIPT_SHAS.get(script), keys, Arrays.asList(args));
+            }
+            catch (JedisNoScriptException e) {
+                return redis.eval(script, keys, Arrays.asList(args));
+            }
+        }
+        catch (Exception e) {
+            Logger.exception(e);
+            return null;
+        }
+    }
+
+    /**
+     * Add an item to the queue
+     * @param item item to add
+     * @return true if the item was added - false if it is already queued or was dropped
+     */
+    public boolean offer(@NotNull QueueItem item) {
+        String member = encode(item);
+        if (member == null)
+            return false;
+        Object added = eval(OFFER_SCRIPT, member, String.valueOf(item.getPriority().ordinal() + 1),
+                String.valueOf(capacity), String.valueOf(System.currentTimeMillis()));
+        // Check the queue promptly for work added by this instance
+        pollInterval = POLL_INTERVAL;
+        return added instanceof Long && (Long) added == 1;
+    }
+
+    /**
+     * Take the highest priority item from the queue, waiting for one to be added if the queue is empty
+     * The item is leased, and duplicates of it are ignored, until it is passed to complete or the lease expires.
+     * The time between checks of an empty queue doubles up to MAX_POLL_INTERVAL while it stays empty.
+     * @param timeout max time to wait
+     * @param unit unit of the timeout
+     * @return item or null if none was added before the timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Nullable
+    public QueueItem poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long end = System.currentTimeMillis() + unit.toMillis(timeout);
+        while (true) {
+            Object member = eval(POLL_SCRIPT, String.valueOf(System.currentTimeMillis()), String.valueOf(lease));
+            if (member instanceof String) {
+                pollInterval = POLL_INTERVAL;
+                QueueItem item = decode((String) member);
+                if (item != null)
+                    return item;
+                complete((String) member);
+                continue;
+            }
+            long remaining = end - System.currentTimeMillis();
+            if (remaining <= 0)
+                return null;
+            long interval = pollInterval;
+            Thread.sleep(Math.min(interval, remaining));
+            pollInterval = Math.min(interval * 2, MAX_POLL_INTERVAL);
+        }
+    }
+
+    /**
+     * Mark an item taken from the queue as finished
+     * If the lease has already expired the item stays queued and will be processed again.
+     * @param item item returned by poll
+     */
+    public void complete(QueueItem item) {
+        String member = encode(item);
+        if (member != null)
+            complete(member);
+    }
+
+    private void complete(String member) {
+        eval(COMPLETE_SCRIPT, member);
+    }
+
+    /**
+     * Extend the lease of an item that is still being worked on
+     * @param item item returned by poll
+     * @return true if the item was still leased
+     */
+    @SuppressWarnings("UnusedReturnValue")
+    public boolean renew(QueueItem item) {
+        String member = encode(item);
+        if (member == null)
+            return false;
+        Object renewed = eval(RENEW_SCRIPT, member, String.valueOf(System.currentTimeMillis()),
+                String.valueOf(lease));
+        return renewed instanceof Long && (Long) renewed == 1;
+    }
+
+    /**
+     * Get the current queue metrics
+     * Counters are shared by every instance using the queue.
+     * @return metrics
+     */
+    public QueueStats getStats() {
+        long highDepth = 0;
+        long lowDepth = 0;
+        long inProgress = 0;
+        Map<String, String> stats = Collections.emptyMap();
+        try (Jedis redis = cache.getAuthenticatedJedis()) {
+            highDepth = redis.llen(keys.get(0));
+            lowDepth = redis.llen(keys.get(1));
+            inProgress = redis.zcard(keys.get(3));
+            stats = redis.hgetAll(keys.get(4));
+        }
+        catch (Exception e) {
+            Logger.exception(e);
+        }
+        long taken = StringUtil.parseLong(stats.get("taken"));
+        return new QueueStats(capacity, (int) highDepth, (int) lowDepth, (int) inProgress,
+                StringUtil.parseLong(stats.get("offered")), StringUtil.parseLong(stats.get("duplicates")),
+                StringUtil.parseLong(stats.get("dropped")), StringUtil.parseLong(stats.get("expired")), taken,
+                taken > 0 ? StringUtil.parseLong(stats.get("wait")) / taken : 0,
+                StringUtil.parseLong(stats.get("max_wait")));
+    }
+
+    /**
+     * Encode an item as a queue member
+     * The member starts with the priority ordinal so expired leases can be queued with the correct priority.
+     * @param item item to encode
+     * @return member or null if the item type is not supported
+     */
+    @Nullable
+    private static String encode(QueueItem item) {
+        List<String> parts = new ArrayList<>();
+        parts.add(String.valueOf(item.getPriority().ordinal()));
+        if (item instanceof FollowQueue) {
+            FollowQueue followQueue = (FollowQueue) item;
+            if (followQueue.getFollowType() == null || followQueue.getUserId() == null)
+                return null;
+            parts.add("f");
+            parts.add(followQueue.getFollowType().name());
+            parts.add(followQueue.getUserId());
+        }
+        else if (item instanceof StreamStatusQueue) {
+            StreamStatusQueue statusQueue = (StreamStatusQueue) item;
+            if (statusQueue.getType() == null || statusQueue.getUserIdentifier() == null)
+                return null;
+            parts.add("s");
+            parts.add(statusQueue.getType().name());
+            parts.add(statusQueue.getUserIdentifier());
+        }
+        else
+            return null;
+        return String.join("|", parts);
+    }
+
+    /**
+     * Decode a queue member
+     * @param member member created by encode
+     * @return item or null if the member is invalid
+     */
+    @Nullable
+    private static QueueItem decode(String member) {
+        String[] parts = member.split("\\|", 4);
+        if (parts.length != 4)
+            return null;
+        try {
+            switch (parts[1]) {
+                case "f":
+                    return new FollowQueue(parts[3], FollowQueue.FollowType.valueOf(parts[2]));
+                case "s":
+                    return new StreamStatusQueue(parts[3], StreamStatusQueue.Type.valueOf(parts[2]));
+                default:
+                    return null;
+            }
+        }
+        catch (IllegalArgumentException e) {
+            Logger.exception(e);
+            return null;
+        }
+    }
+}
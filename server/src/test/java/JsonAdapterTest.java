@@ -0,0 +1,107 @@
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.rolandoislas.twitchunofficial.data.model.StreamQuality;
+import com.rolandoislas.twitchunofficial.data.model.json.twitch.Token;
+import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.Game;
+import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.Stream;
+import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.User;
+import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.UserName;
+import com.rolandoislas.twitchunofficial.util.JsonUtil;
+import org.junit.Test;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class JsonAdapterTest {
+    private static final int STREAMS = 100;
+    private static final Type STREAM_LIST_TYPE = new TypeToken<List<Stream>>() {}.getType();
+    private final Gson reflectiveGson = new Gson();
+    private final Gson gson = JsonUtil.getGson();
+
+    /**
+     * Check that the adapters write the same json as reflection
+     */
+    @Test
+    public void testSerializeMatchesReflection() {
+        List<Stream> streams = createStreams();
+        assertEquals(reflectiveGson.toJson(streams), gson.toJson(streams));
+        Stream offlineStream = new Stream();
+        offlineStream.setUserId("1");
+        offlineStream.setUserName(new UserName("login", null));
+        offlineStream.setOnline(false);
+        assertEquals(reflectiveGson.toJson(offlineStream), gson.toJson(offlineStream));
+        User user = new User();
+        user.setId("1");
+        user.setLogin("login <user>");
+        user.setViewCount(10);
+        assertEquals(reflectiveGson.toJson(user), gson.toJson(user));
+        Game game = new Game();
+        game.setId("1");
+        game.setName("Game & Game");
+        assertEquals(reflectiveGson.toJson(game), gson.toJson(game));
+        game.setViewers(100L);
+        assertEquals(reflectiveGson.toJson(game), gson.toJson(game));
+        StreamQuality streamQuality = new StreamQuality("model", 1000, "", true, false, true, false, true,
+                false, true, false, true);
+        streamQuality.setId(2);
+        assertEquals(reflectiveGson.toJson(streamQuality), gson.toJson(streamQuality));
+    }
+
+    /**
+     * Check that the adapters read the same objects as reflection
+     */
+    @Test
+    public void testDeserializeMatchesReflection() {
+        String streamsJson = reflectiveGson.toJson(createStreams());
+        List<Stream> reflectiveStreams = reflectiveGson.fromJson(streamsJson, STREAM_LIST_TYPE);
+        List<Stream> adapterStreams = gson.fromJson(streamsJson, STREAM_LIST_TYPE);
+        assertEquals(reflectiveGson.toJson(reflectiveStreams), reflectiveGson.toJson(adapterStreams));
+        assertReadMatches("{\"user_id\":\"1\",\"viewer_count\":\"12\",\"online\":\"false\",\"extra\":{\"a\":[1]}," +
+                "\"community_id\":null,\"user_name\":{\"login\":\"a\"},\"title\":null}", Stream.class);
+        assertReadMatches("{\"id\":\"1\",\"login\":\"a\",\"view_count\":5,\"exists\":null}", User.class);
+        assertReadMatches("{\"id\":1,\"name\":\"game\",\"viewers\":null}", Game.class);
+        assertReadMatches("{\"id\":\"1\",\"viewers\":20}", Game.class);
+        assertReadMatches("{\"token\":\"{\\\"expires\\\":10}\",\"sig\":\"abc\",\"mobile_restricted\":true}",
+                Token.class);
+        assertReadMatches("{\"model\":\"roku\",\"bitrate\":5000,\"720p60\":true}", StreamQuality.class);
+        assertReadMatches("null", Stream.class);
+    }
+
+    /**
+     * Assert that json is read into an equal object by reflection and the adapter
+     */
+    private <T> void assertReadMatches(String json, Class<T> type) {
+        assertEquals(reflectiveGson.toJson(reflectiveGson.fromJson(json, type)),
+                reflectiveGson.toJson(gson.fromJson(json, type)));
+    }
+
+    /**
+     * Create live streams with every field set
+     * @return streams
+     */
+    private List<Stream> createStreams() {
+        Random random = new Random(0);
+        List<Stream> streams = new ArrayList<>();
+        for (int index = 0; index < STREAMS; index++) {
+            Stream stream = new Stream();
+            stream.setId(String.valueOf(random.nextLong()));
+            stream.setUserId(String.valueOf(1000 + index));
+            stream.setGameId(String.valueOf(random.nextInt(500)));
+            stream.setCommunityIds(new ArrayList<>());
+            stream.setType("live");
+            stream.setTitle("Stream title " + index + " <with> \"quotes\" & symbols é");
+            stream.setViewerCount(random.nextInt(100000));
+            stream.setStartedAt("2018-01-01T00:00:00Z");
+            stream.setLanguage("en");
+            stream.setThumbnailUrl("https://example.com/live_user_" + index + "-{width}x{height}.jpg");
+            stream.setUserName(new UserName("user" + index, "User" + index));
+            stream.setGameName("Game " + index);
+            streams.add(stream);
+        }
+        return streams;
+    }
+}
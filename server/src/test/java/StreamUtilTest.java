@@ -0,0 +1,111 @@
+import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.Follow;
+import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.Stream;
+import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.StreamUtil;
+import com.rolandoislas.twitchunofficial.data.model.json.twitch.helix.StreamViewComparator;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StreamUtilTest {
+    /**
+     * Check that only followed channels that are not live are added, once each, in page order
+     */
+    @Test
+    public void testAddOfflineFollows() {
+        List<Follow> followsOffline = new ArrayList<>();
+        Set<String> followIdsOffline = new HashSet<>();
+        // First page - 2 is live
+        Map<String, Follow> firstPage = createFollows("1", "2", "3");
+        StreamUtil.addOfflineFollows(followsOffline, followIdsOffline, Arrays.asList("1", "2", "3", "1"), firstPage,
+                Collections.singletonList(createStream("2", "live", 10)));
+        // Second page repeats 3 and has no live streams
+        Map<String, Follow> secondPage = createFollows("3", "4");
+        StreamUtil.addOfflineFollows(followsOffline, followIdsOffline, Arrays.asList("3", "4"), secondPage,
+                new ArrayList<>());
+        assertEquals(Arrays.asList(firstPage.get("1"), firstPage.get("3"), secondPage.get("4")), followsOffline);
+        assertEquals(new HashSet<>(Arrays.asList("1", "3", "4")), followIdsOffline);
+    }
+
+    /**
+     * Check that a limit of zero or less selects no streams
+     */
+    @Test
+    public void testTopStreamsNoLimit() {
+        List<Stream> streams = Arrays.asList(createStream("1", "live", 10), createStream("2", "live", 20));
+        assertTrue(StreamUtil.getTopStreams(streams, new StreamViewComparator(), 0).isEmpty());
+        assertTrue(StreamUtil.getTopStreams(streams, new StreamViewComparator(), -1).isEmpty());
+        assertTrue(StreamUtil.getTopStreams(new ArrayList<>(), new StreamViewComparator(), 10).isEmpty());
+    }
+
+    /**
+     * Check that a limit greater than the list returns every stream in descending order
+     */
+    @Test
+    public void testTopStreamsLimitAboveSize() {
+        Stream low = createStream("1", "live", 10);
+        Stream high = createStream("2", "live", 30);
+        Stream offline = createStream("3", "user_follow", 1000);
+        Stream mid = createStream("4", "live", 20);
+        assertEquals(Arrays.asList(high, mid, low, offline),
+                StreamUtil.getTopStreams(Arrays.asList(low, high, offline, mid), new StreamViewComparator(), 10));
+    }
+
+    /**
+     * Check that equal streams keep their list order, including at the limit
+     */
+    @Test
+    public void testTopStreamsTiesKeepOrder() {
+        Stream first = createStream("1", "live", 10);
+        Stream second = createStream("2", "live", 10);
+        Stream third = createStream("3", "live", 10);
+        Stream high = createStream("4", "live", 20);
+        Stream firstOffline = createStream("5", "user_follow", 0);
+        Stream secondOffline = createStream("6", "user_follow", 0);
+        List<Stream> streams = Arrays.asList(firstOffline, first, second, high, secondOffline, third);
+        assertEquals(Arrays.asList(high, first, second),
+                StreamUtil.getTopStreams(streams, new StreamViewComparator(), 3));
+        assertEquals(Arrays.asList(high, first, second, third, firstOffline, secondOffline),
+                StreamUtil.getTopStreams(streams, new StreamViewComparator(), 6));
+    }
+
+    /**
+     * Create follows of a user mapped to their followed ids
+     * @param toIds followed ids
+     * @return follows
+     */
+    private Map<String, Follow> createFollows(String... toIds) {
+        Map<String, Follow> follows = new HashMap<>();
+        for (String toId : toIds) {
+            Follow follow = new Follow();
+            follow.setFromId("0");
+            follow.setToId(toId);
+            follows.put(toId, follow);
+        }
+        return follows;
+    }
+
+    /**
+     * Create a stream
+     * @param userId user id
+     * @param type stream type
+     * @param viewers viewer count
+     * @return stream
+     */
+    private Stream createStream(String userId, String type, int viewers) {
+        Stream stream = new Stream();
+        stream.setUserId(userId);
+        stream.setType(type);
+        stream.setViewerCount(viewers);
+        return stream;
+    }
+}